@@ -0,0 +1,131 @@
+package net.imglib2.cache.python;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.LoaderCache;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link LoaderCache} that is bounded by the total size of its values in bytes, as measured by {@code weigher},
+ * instead of the number of entries. Values are referenced strongly until they are evicted to meet a
+ * {@link NativeMemoryBudget}, which can be shared by several caches. {@code onEviction} is called for each evicted
+ * or invalidated value, e.g. to return its buffer to a {@link DirectBufferPool} right away.
+ */
+public class BudgetedLoaderCache<K, V> implements LoaderCache<K, V> {
+
+	private class Entry implements NativeMemoryBudget.Entry {
+		private final K key;
+		private final CompletableFuture<V> value = new CompletableFuture<>();
+		private long bytes;
+
+		private Entry(final K key) {
+			this.key = key;
+		}
+
+		@Override
+		public long getBytes() {
+			return bytes;
+		}
+
+		@Override
+		public void evict() {
+			if (entries.remove(key, this))
+				onEviction.accept(value.join());
+		}
+	}
+
+	private final NativeMemoryBudget budget;
+	private final ToLongFunction<? super V> weigher;
+	private final Consumer<? super V> onEviction;
+	private final ConcurrentHashMap<K, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * @param weigher size of a value in bytes
+	 * @param onEviction called for each value that was evicted or invalidated
+	 */
+	public BudgetedLoaderCache(
+			final NativeMemoryBudget budget,
+			final ToLongFunction<? super V> weigher,
+			final Consumer<? super V> onEviction) {
+		this.budget = budget;
+		this.weigher = weigher;
+		this.onEviction = onEviction;
+	}
+
+	public BudgetedLoaderCache(final NativeMemoryBudget budget, final ToLongFunction<? super V> weigher) {
+		this(budget, weigher, v -> {});
+	}
+
+	@Override
+	public V getIfPresent(final K key) {
+		final Entry entry = entries.get(key);
+		if (entry == null || !entry.value.isDone() || entry.value.isCompletedExceptionally())
+			return null;
+		budget.touch(entry);
+		return entry.value.join();
+	}
+
+	@Override
+	public V get(final K key, final CacheLoader<? super K, ? extends V> loader) throws ExecutionException {
+		final Entry entry = entries.get(key);
+		if (entry != null)
+			return await(entry);
+
+		final Entry loading = new Entry(key);
+		final Entry existing = entries.putIfAbsent(key, loading);
+		if (existing != null)
+			return await(existing);
+
+		final V value;
+		try {
+			value = loader.get(key);
+		} catch (final Exception e) {
+			// failed values are not cached and loaded again on the next request
+			entries.remove(key, loading);
+			loading.value.completeExceptionally(e);
+			throw new ExecutionException(e);
+		}
+		loading.bytes = weigher.applyAsLong(value);
+		// account before completing: a value that can be observed can also be invalidated
+		budget.add(loading);
+		loading.value.complete(value);
+		return value;
+	}
+
+	private V await(final Entry entry) throws ExecutionException {
+		try {
+			final V value = entry.value.join();
+			budget.touch(entry);
+			return value;
+		} catch (final CompletionException e) {
+			throw new ExecutionException(e.getCause());
+		}
+	}
+
+	/**
+	 * Remove the value for {@code key}, if it was loaded already.
+	 */
+	public void invalidate(final K key) {
+		final Entry entry = entries.get(key);
+		if (entry != null && entry.value.isDone())
+			invalidate(entry);
+	}
+
+	@Override
+	public void invalidateAll() {
+		for (final Entry entry : new ArrayList<>(entries.values()))
+			if (entry.value.isDone())
+				invalidate(entry);
+	}
+
+	private void invalidate(final Entry entry) {
+		if (budget.remove(entry))
+			entry.evict();
+	}
+}
@@ -0,0 +1,206 @@
+package net.imglib2.cache.python;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Bulk operations on typed (direct) buffers.
+ */
+class Buffers {
+
+	private Buffers() {
+	}
+
+	static int bytesPerElement(final Buffer buffer) {
+		if (buffer instanceof ByteBuffer)
+			return Byte.BYTES;
+		if (buffer instanceof CharBuffer)
+			return Character.BYTES;
+		if (buffer instanceof ShortBuffer)
+			return Short.BYTES;
+		if (buffer instanceof IntBuffer)
+			return Integer.BYTES;
+		if (buffer instanceof FloatBuffer)
+			return Float.BYTES;
+		if (buffer instanceof LongBuffer)
+			return Long.BYTES;
+		if (buffer instanceof DoubleBuffer)
+			return Double.BYTES;
+		throw new IllegalArgumentException("Unsupported buffer: " + buffer);
+	}
+
+	static long numBytes(final Buffer buffer) {
+		return (long) buffer.capacity() * bytesPerElement(buffer);
+	}
+
+	static ByteOrder order(final Buffer buffer) {
+		if (buffer instanceof ByteBuffer)
+			return ((ByteBuffer) buffer).order();
+		if (buffer instanceof CharBuffer)
+			return ((CharBuffer) buffer).order();
+		if (buffer instanceof ShortBuffer)
+			return ((ShortBuffer) buffer).order();
+		if (buffer instanceof IntBuffer)
+			return ((IntBuffer) buffer).order();
+		if (buffer instanceof FloatBuffer)
+			return ((FloatBuffer) buffer).order();
+		if (buffer instanceof LongBuffer)
+			return ((LongBuffer) buffer).order();
+		if (buffer instanceof DoubleBuffer)
+			return ((DoubleBuffer) buffer).order();
+		throw new IllegalArgumentException("Unsupported buffer: " + buffer);
+	}
+
+	/**
+	 * Copy all elements of {@code source} into {@code target}, preserving the byte order of {@code source}.
+	 */
+	static void copy(final Buffer source, final ByteBuffer target) {
+		target.order(order(source));
+		if (source instanceof ByteBuffer)
+			target.put(rewound(((ByteBuffer) source).duplicate()));
+		else if (source instanceof CharBuffer)
+			target.asCharBuffer().put(rewound(((CharBuffer) source).duplicate()));
+		else if (source instanceof ShortBuffer)
+			target.asShortBuffer().put(rewound(((ShortBuffer) source).duplicate()));
+		else if (source instanceof IntBuffer)
+			target.asIntBuffer().put(rewound(((IntBuffer) source).duplicate()));
+		else if (source instanceof FloatBuffer)
+			target.asFloatBuffer().put(rewound(((FloatBuffer) source).duplicate()));
+		else if (source instanceof LongBuffer)
+			target.asLongBuffer().put(rewound(((LongBuffer) source).duplicate()));
+		else if (source instanceof DoubleBuffer)
+			target.asDoubleBuffer().put(rewound(((DoubleBuffer) source).duplicate()));
+		else
+			throw new IllegalArgumentException("Unsupported buffer: " + source);
+	}
+
+	/**
+	 * Fill all elements of {@code target} from {@code source}, which holds data in the byte order of {@code target}.
+	 */
+	static void copy(final ByteBuffer source, final Buffer target) {
+		source.order(order(target));
+		if (target instanceof ByteBuffer)
+			rewound(((ByteBuffer) target).duplicate()).put(source);
+		else if (target instanceof CharBuffer)
+			rewound(((CharBuffer) target).duplicate()).put(source.asCharBuffer());
+		else if (target instanceof ShortBuffer)
+			rewound(((ShortBuffer) target).duplicate()).put(source.asShortBuffer());
+		else if (target instanceof IntBuffer)
+			rewound(((IntBuffer) target).duplicate()).put(source.asIntBuffer());
+		else if (target instanceof FloatBuffer)
+			rewound(((FloatBuffer) target).duplicate()).put(source.asFloatBuffer());
+		else if (target instanceof LongBuffer)
+			rewound(((LongBuffer) target).duplicate()).put(source.asLongBuffer());
+		else if (target instanceof DoubleBuffer)
+			rewound(((DoubleBuffer) target).duplicate()).put(source.asDoubleBuffer());
+		else
+			throw new IllegalArgumentException("Unsupported buffer: " + target);
+	}
+
+	/**
+	 * Copy {@code length} elements of {@code source}, starting at {@code sourcePosition}, into {@code target}, starting
+	 * at {@code targetPosition}. Positions and limits of {@code source} and {@code target} are not modified.
+	 */
+	static void copy(
+			final Buffer source,
+			final int sourcePosition,
+			final Buffer target,
+			final int targetPosition,
+			final int length) {
+		put(region(source, sourcePosition, length), region(target, targetPosition, length));
+	}
+
+	/**
+	 * Fill {@code length} elements of {@code target}, starting at {@code position}, by repeating all elements of
+	 * {@code value}. {@code length} must be a multiple of the capacity of {@code value}.
+	 */
+	static void fill(final Buffer target, final int position, final int length, final Buffer value) {
+		if (length <= 0)
+			return;
+		copy(value, 0, target, position, value.capacity());
+		// double the filled region with each bulk copy
+		for (int filled = value.capacity(); filled < length; ) {
+			final int n = Math.min(filled, length - filled);
+			copy(target, position, target, position + filled, n);
+			filled += n;
+		}
+	}
+
+	/**
+	 * @return a direct buffer of {@code length} elements with the type and byte order of {@code like}
+	 */
+	static Buffer allocateDirect(final Buffer like, final int length) {
+		final ByteBuffer bytes = ByteBuffer.allocateDirect(length * bytesPerElement(like)).order(order(like));
+		if (like instanceof ByteBuffer)
+			return bytes;
+		if (like instanceof CharBuffer)
+			return bytes.asCharBuffer();
+		if (like instanceof ShortBuffer)
+			return bytes.asShortBuffer();
+		if (like instanceof IntBuffer)
+			return bytes.asIntBuffer();
+		if (like instanceof FloatBuffer)
+			return bytes.asFloatBuffer();
+		if (like instanceof LongBuffer)
+			return bytes.asLongBuffer();
+		if (like instanceof DoubleBuffer)
+			return bytes.asDoubleBuffer();
+		throw new IllegalArgumentException("Unsupported buffer: " + like);
+	}
+
+	private static Buffer region(final Buffer buffer, final int position, final int length) {
+		final Buffer region = rewound(duplicate(buffer));
+		region.limit(position + length);
+		region.position(position);
+		return region;
+	}
+
+	private static Buffer duplicate(final Buffer buffer) {
+		if (buffer instanceof ByteBuffer)
+			return ((ByteBuffer) buffer).duplicate();
+		if (buffer instanceof CharBuffer)
+			return ((CharBuffer) buffer).duplicate();
+		if (buffer instanceof ShortBuffer)
+			return ((ShortBuffer) buffer).duplicate();
+		if (buffer instanceof IntBuffer)
+			return ((IntBuffer) buffer).duplicate();
+		if (buffer instanceof FloatBuffer)
+			return ((FloatBuffer) buffer).duplicate();
+		if (buffer instanceof LongBuffer)
+			return ((LongBuffer) buffer).duplicate();
+		if (buffer instanceof DoubleBuffer)
+			return ((DoubleBuffer) buffer).duplicate();
+		throw new IllegalArgumentException("Unsupported buffer: " + buffer);
+	}
+
+	private static void put(final Buffer source, final Buffer target) {
+		if (target instanceof ByteBuffer)
+			((ByteBuffer) target).put((ByteBuffer) source);
+		else if (target instanceof CharBuffer)
+			((CharBuffer) target).put((CharBuffer) source);
+		else if (target instanceof ShortBuffer)
+			((ShortBuffer) target).put((ShortBuffer) source);
+		else if (target instanceof IntBuffer)
+			((IntBuffer) target).put((IntBuffer) source);
+		else if (target instanceof FloatBuffer)
+			((FloatBuffer) target).put((FloatBuffer) source);
+		else if (target instanceof LongBuffer)
+			((LongBuffer) target).put((LongBuffer) source);
+		else if (target instanceof DoubleBuffer)
+			((DoubleBuffer) target).put((DoubleBuffer) source);
+		else
+			throw new IllegalArgumentException("Unsupported buffer: " + target);
+	}
+
+	private static <B extends Buffer> B rewound(final B buffer) {
+		buffer.clear();
+		return buffer;
+	}
+}
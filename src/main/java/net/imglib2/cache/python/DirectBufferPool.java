@@ -0,0 +1,213 @@
+package net.imglib2.cache.python;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded pool of direct {@link ByteBuffer}s, bucketed by size. Grid cells mostly share the same size, so buffers of
+ * equal size are recycled as they are, without slicing.
+ * <p>
+ * Buffers are returned to the pool either explicitly through {@link #recycle(ByteBuffer)} (or {@link #release(Buffer)}
+ * for views registered with {@link #track(Buffer, ByteBuffer)}), or once an owner registered with
+ * {@link #recycleWhenUnreachable(Object, ByteBuffer)}, e.g. the typed storage buffer of a cell, has been garbage
+ * collected. At most {@code maxPooledBytes} are
+ * kept for reuse, any excess buffers are left to the garbage collector.
+ */
+public class DirectBufferPool {
+
+	private static class Lease extends WeakReference<Object> {
+		private final ByteBuffer buffer;
+
+		private Lease(final Object owner, final ByteBuffer buffer, final ReferenceQueue<Object> queue) {
+			super(owner, queue);
+			this.buffer = buffer;
+		}
+	}
+
+	private final long maxPooledBytes;
+	private final Map<Integer, ArrayDeque<ByteBuffer>> buckets = new HashMap<>();
+	private final Set<ByteBuffer> leased = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Map<Buffer, ByteBuffer> views = new IdentityHashMap<>();
+	private final Set<Lease> leases = new HashSet<>();
+	private final ReferenceQueue<Object> unreachable = new ReferenceQueue<>();
+	private long pooledBytes = 0;
+
+	public DirectBufferPool(final long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+	}
+
+	/**
+	 * @return zero-filled direct buffer of capacity {@code numBytes}
+	 */
+	public ByteBuffer acquire(final int numBytes) {
+		return acquire(numBytes, true);
+	}
+
+	/**
+	 * @param clear zero-fill recycled buffers. Set to {@code false} only if all contents will be overwritten.
+	 * @return direct buffer of capacity {@code numBytes}
+	 */
+	public ByteBuffer acquire(final int numBytes, final boolean clear) {
+		ByteBuffer buffer;
+		synchronized (this) {
+			reclaimUnreachable();
+			final ArrayDeque<ByteBuffer> bucket = buckets.get(numBytes);
+			buffer = bucket == null ? null : bucket.pollFirst();
+			if (buffer != null) {
+				pooledBytes -= numBytes;
+				leased.add(buffer);
+			}
+		}
+
+		if (buffer == null) {
+			buffer = allocate(numBytes);
+			synchronized (this) {
+				leased.add(buffer);
+			}
+		} else {
+			buffer.clear();
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			if (clear)
+				zero(buffer);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Allocate a new zero-filled direct buffer of capacity {@code numBytes} if there is none to recycle.
+	 */
+	protected ByteBuffer allocate(final int numBytes) {
+		return ByteBuffer.allocateDirect(numBytes);
+	}
+
+	/**
+	 * Return {@code buffer} to the pool. Buffers that were not acquired from this pool, or that have been returned
+	 * already, are ignored.
+	 */
+	public synchronized void recycle(final ByteBuffer buffer) {
+		if (!leased.remove(buffer))
+			return;
+		final int numBytes = buffer.capacity();
+		if (numBytes > maxPooledBytes)
+			return;
+		evict(pooledBytes + numBytes - maxPooledBytes, numBytes);
+		buckets.computeIfAbsent(numBytes, k -> new ArrayDeque<>()).addFirst(buffer);
+		pooledBytes += numBytes;
+	}
+
+	/**
+	 * Register a (typed) {@code view} of an acquired {@code buffer} so that it can be returned through
+	 * {@link #release(Buffer)}.
+	 *
+	 * @return {@code view}
+	 */
+	public synchronized <B extends Buffer> B track(final B view, final ByteBuffer buffer) {
+		views.put(view, buffer);
+		return view;
+	}
+
+	/**
+	 * Return the buffer behind a {@code view} that was registered with {@link #track(Buffer, ByteBuffer)}. Views that
+	 * are not tracked, e.g. buffers of cached cells passed to Python without copy, are ignored.
+	 */
+	public synchronized void release(final Buffer view) {
+		final ByteBuffer buffer = views.remove(view);
+		if (buffer != null)
+			recycle(buffer);
+	}
+
+	/**
+	 * Return {@code buffer} to the pool once {@code owner} is no longer reachable. The owner should be the buffer
+	 * through which the memory of {@code buffer} is used, e.g. the storage of a cell access: all views of
+	 * {@code buffer} that are used after the owner became unreachable, e.g. slices, must be created from the owner and
+	 * must reference it. The owner cannot be {@code buffer} itself, which the pool keeps reachable.
+	 */
+	public synchronized void recycleWhenUnreachable(final Object owner, final ByteBuffer buffer) {
+		if (owner == buffer)
+			throw new IllegalArgumentException("The owner of a pooled buffer must not be the buffer itself.");
+		reclaimUnreachable();
+		leases.add(new Lease(owner, buffer, unreachable));
+	}
+
+	/**
+	 * Return the buffer that was registered for {@code owner} with {@link #recycleWhenUnreachable(Object, ByteBuffer)}
+	 * to the pool right away, e.g. when the cache evicts the cell that holds {@code owner}. {@code owner} must not be
+	 * used afterwards.
+	 *
+	 * @return {@code true} if a buffer was registered for {@code owner}
+	 */
+	public synchronized boolean recycleNow(final Object owner) {
+		reclaimUnreachable();
+		// linear in the number of leases, which is small compared to the cost of computing a cell
+		for (final Iterator<Lease> it = leases.iterator(); it.hasNext(); ) {
+			final Lease lease = it.next();
+			if (lease.get() == owner) {
+				it.remove();
+				lease.clear();
+				recycle(lease.buffer);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of bytes currently held for reuse
+	 */
+	public synchronized long getPooledBytes() {
+		reclaimUnreachable();
+		return pooledBytes;
+	}
+
+	private void reclaimUnreachable() {
+		for (Reference<?> reference = unreachable.poll(); reference != null; reference = unreachable.poll()) {
+			final Lease lease = (Lease) reference;
+			if (leases.remove(lease))
+				recycle(lease.buffer);
+		}
+	}
+
+	private void evict(long numBytes, final int keepSize) {
+		for (final Iterator<Map.Entry<Integer, ArrayDeque<ByteBuffer>>> it = buckets.entrySet().iterator(); numBytes > 0 && it.hasNext(); ) {
+			final Map.Entry<Integer, ArrayDeque<ByteBuffer>> bucket = it.next();
+			// prefer to keep buffers of the size that is in use right now
+			if (bucket.getKey() == keepSize)
+				continue;
+			numBytes -= evict(bucket.getValue(), numBytes);
+			if (bucket.getValue().isEmpty())
+				it.remove();
+		}
+		final ArrayDeque<ByteBuffer> bucket = buckets.get(keepSize);
+		if (numBytes > 0 && bucket != null)
+			evict(bucket, numBytes);
+	}
+
+	private long evict(final ArrayDeque<ByteBuffer> bucket, final long numBytes) {
+		long evicted = 0;
+		while (evicted < numBytes && !bucket.isEmpty())
+			evicted += bucket.pollLast().capacity();
+		pooledBytes -= evicted;
+		return evicted;
+	}
+
+	private static void zero(final ByteBuffer buffer) {
+		final int numBytes = buffer.capacity();
+		int i = 0;
+		for (; i + Long.BYTES <= numBytes; i += Long.BYTES)
+			buffer.putLong(i, 0L);
+		for (; i < numBytes; ++i)
+			buffer.put(i, (byte) 0);
+	}
+}
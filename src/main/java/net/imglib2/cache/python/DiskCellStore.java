@@ -0,0 +1,268 @@
+package net.imglib2.cache.python;
+
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.PrimitiveType;
+import net.imglib2.type.numeric.RealType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Persists computed cells on local disk in the layout of an uncompressed N5 dataset: {@code attributes.json} and one
+ * file per cell at {@code <x>/<y>/...} (grid position) that holds a header (mode, number of dimensions, and cell
+ * dimensions) followed by the raw big-endian data. Data of cells in little-endian buffers is converted before it is
+ * written. Cells are read through private (copy-on-write) memory mappings, i.e. without copying and without modifying
+ * the files when cells are written to. Cells are written asynchronously on a daemon thread of the store, through a
+ * temporary file that is moved into place atomically. At most {@link #MAX_PENDING_WRITES} cells wait to be written,
+ * further cells are written by the thread that stores them.
+ */
+class DiskCellStore {
+
+	static final int MAX_PENDING_WRITES = 64;
+
+	private final Path dataset;
+	private final CellGrid grid;
+	private final PrimitiveType primitiveType;
+	private final long[] gridDimensions;
+	private final int headerSize;
+	private final ThreadPoolExecutor writer;
+	private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+	/**
+	 * @param dataset directory of the dataset, created if it does not exist
+	 */
+	DiskCellStore(final Path dataset, final CellGrid grid, final NativeType<?> t) throws IOException {
+		this.dataset = dataset;
+		this.grid = grid;
+		this.primitiveType = t.getNativeTypeFactory().getPrimitiveType();
+		this.gridDimensions = grid.getGridDimensions();
+		this.headerSize = 2 * Short.BYTES + grid.numDimensions() * Integer.BYTES;
+		Files.createDirectories(dataset);
+		final Path attributes = dataset.resolve("attributes.json");
+		if (!Files.exists(attributes)) {
+			final int[] cellDimensions = new int[grid.numDimensions()];
+			grid.cellDimensions(cellDimensions);
+			final String json = String.format(
+					"{\"dimensions\":%s,\"blockSize\":%s,\"dataType\":\"%s\",\"compression\":{\"type\":\"raw\"}}",
+					Arrays.toString(grid.getImgDimensions()).replace(" ", ""),
+					Arrays.toString(cellDimensions).replace(" ", ""),
+					dataType(t));
+			writeAtomically(attributes, ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+		}
+		// the thread times out, i.e. stores that are not closed do not keep a thread
+		this.writer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_PENDING_WRITES), r -> {
+			final Thread thread = new Thread(r, "python-disk-cache-writer");
+			thread.setDaemon(true);
+			return thread;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		this.writer.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return a hex-encoded SHA-256 hash of {@code parts}, e.g. to name a dataset after everything that determines its
+	 * content
+	 */
+	static String hash(final String... parts) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (final String part : parts) {
+				final byte[] bytes = String.valueOf(part).getBytes(StandardCharsets.UTF_8);
+				// length prefix keeps the boundaries between parts unambiguous
+				digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+				digest.update(bytes);
+			}
+			final StringBuilder hex = new StringBuilder();
+			for (final byte b : digest.digest())
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the data of cell {@code key} or {@code null} if it was not stored (completely) yet
+	 */
+	ByteBuffer read(final long key, final int numBytes) {
+		final Path path = path(key);
+		if (!Files.exists(path))
+			return null;
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() != headerSize + numBytes)
+				return null;
+			final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size());
+			if (!isHeaderValid(key, mapped))
+				return null;
+			mapped.position(headerSize);
+			return mapped.slice().order(ByteOrder.BIG_ENDIAN);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Store {@code numBytes} of {@code data} as cell {@code key} in the background. The elements of {@code data} are
+	 * in the byte order of {@code data}. {@code owner} is kept reachable until {@code data} was written, e.g. to
+	 * prevent that a pooled buffer is recycled. Cells are not stored after the store was {@link #close() closed}.
+	 */
+	void writeAsync(final long key, final ByteBuffer data, final int numBytes, final Object owner) {
+		final ByteBuffer source = ((ByteBuffer) data.duplicate().clear().limit(numBytes)).order(data.order());
+		// rejected silently by the caller-runs policy once the writer is shut down
+		writer.execute(() -> {
+			try {
+				final ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.BIG_ENDIAN);
+				header.putShort((short) 0);
+				header.putShort((short) grid.numDimensions());
+				for (final int d : cellDimensions(key))
+					header.putInt(d);
+				header.flip();
+				writeAtomically(path(key), header, toBigEndian(source));
+			} catch (final IOException e) {
+				if (!failure.compareAndSet(null, e))
+					failure.get().addSuppressed(e);
+			}
+			// reference owner until here
+			owner.hashCode();
+		});
+	}
+
+	/**
+	 * Wait for all pending writes and stop the writer thread. Cells that are stored afterwards are dropped.
+	 *
+	 * @throws IOException the first write that failed, with later failures suppressed
+	 */
+	void close() throws IOException {
+		writer.shutdown();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (writer.awaitTermination(1, TimeUnit.SECONDS))
+					break;
+			} catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		final IOException e = failure.get();
+		if (e != null)
+			throw e;
+	}
+
+	/**
+	 * @return {@code data} or a copy of it with the elements in big-endian byte order
+	 */
+	private ByteBuffer toBigEndian(final ByteBuffer data) {
+		if (data.order() == ByteOrder.BIG_ENDIAN)
+			return data;
+		final ByteBuffer target = ByteBuffer.allocate(data.remaining()).order(ByteOrder.BIG_ENDIAN);
+		switch (primitiveType) {
+			case CHAR:
+				target.asCharBuffer().put(data.asCharBuffer());
+				break;
+			case SHORT:
+				target.asShortBuffer().put(data.asShortBuffer());
+				break;
+			case INT:
+				target.asIntBuffer().put(data.asIntBuffer());
+				break;
+			case FLOAT:
+				target.asFloatBuffer().put(data.asFloatBuffer());
+				break;
+			case LONG:
+				target.asLongBuffer().put(data.asLongBuffer());
+				break;
+			case DOUBLE:
+				target.asDoubleBuffer().put(data.asDoubleBuffer());
+				break;
+			default:
+				target.put(data).flip();
+				break;
+		}
+		return target;
+	}
+
+	private boolean isHeaderValid(final long key, final ByteBuffer buffer) {
+		final ByteBuffer header = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		if (header.getShort() != 0 || header.getShort() != grid.numDimensions())
+			return false;
+		for (final int d : cellDimensions(key))
+			if (header.getInt() != d)
+				return false;
+		return true;
+	}
+
+	private int[] cellDimensions(final long key) {
+		final long[] min = new long[grid.numDimensions()];
+		final int[] dimensions = new int[min.length];
+		grid.getCellDimensions(key, min, dimensions);
+		return dimensions;
+	}
+
+	private Path path(final long key) {
+		final long[] position = new long[grid.numDimensions()];
+		long index = key;
+		for (int d = 0; d < position.length; ++d) {
+			position[d] = index % gridDimensions[d];
+			index /= gridDimensions[d];
+		}
+		return dataset.resolve(Arrays.stream(position).mapToObj(Long::toString).collect(Collectors.joining("/")));
+	}
+
+	private static void writeAtomically(final Path path, final ByteBuffer... contents) throws IOException {
+		Files.createDirectories(path.getParent());
+		final Path tmp = Files.createTempFile(path.getParent(), "." + path.getFileName(), ".tmp");
+		try {
+			try (final FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				for (final ByteBuffer content : contents)
+					while (content.hasRemaining())
+						channel.write(content);
+			}
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static String dataType(final NativeType<?> t) {
+		final boolean isSigned = t instanceof RealType<?> && ((RealType<?>) t).getMinValue() < 0;
+		if (t.getEntitiesPerPixel().getRatio() == 1)
+			switch (t.getNativeTypeFactory().getPrimitiveType()) {
+				case BYTE:
+					return isSigned ? "int8" : "uint8";
+				case CHAR:
+					return "uint16";
+				case SHORT:
+					return isSigned ? "int16" : "uint16";
+				case INT:
+					return isSigned ? "int32" : "uint32";
+				case LONG:
+					return isSigned ? "int64" : "uint64";
+				case FLOAT:
+					return "float32";
+				case DOUBLE:
+					return "float64";
+				default:
+					break;
+			}
+		throw new IllegalArgumentException("Unsupported type for disk cache: " + t);
+	}
+}
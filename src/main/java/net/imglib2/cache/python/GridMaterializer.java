@@ -0,0 +1,181 @@
+package net.imglib2.cache.python;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.img.basictypeaccess.nio.BufferAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes all cells of a {@link PythonCacheLoader} within an interval, e.g. for offline processing of a whole image,
+ * and hands each cell to a {@link Sink} instead of a cache. Inputs of upcoming cells are staged on {@code numThreads}
+ * threads while Python computes earlier cells, i.e. the workers do not wait for Java. At most {@code maxInFlight}
+ * cells are staged, queued, running, or in the sink at any time, which bounds the memory of input and output buffers.
+ * With a buffer pool, output buffers are returned to the pool as soon as the sink returns.
+ */
+public class GridMaterializer<A extends BufferAccess<A>> implements AutoCloseable {
+
+	public interface Sink<A> {
+		/**
+		 * Consume cell {@code key}. Called concurrently from multiple threads in no particular order. {@code cell} must
+		 * not be used after this method returns.
+		 */
+		void accept(long key, Cell<A> cell) throws Exception;
+	}
+
+	public interface ProgressListener {
+		/**
+		 * Called concurrently from multiple threads after the sink consumed a cell.
+		 */
+		void progress(long numDone, long numCells);
+	}
+
+	private final PythonCacheLoader<?, A> loader;
+	private final CellGrid grid;
+	private final int maxInFlight;
+	private final ExecutorService executor;
+
+	/**
+	 * @param numThreads number of threads that stage inputs and run the sink
+	 * @param maxInFlight maximum number of cells that are staged, queued, running, or in the sink, e.g. twice the
+	 *                    number of Python workers
+	 */
+	public GridMaterializer(final PythonCacheLoader<?, A> loader, final int numThreads, final int maxInFlight) {
+		loader.checkNoOutputs();
+		this.loader = loader;
+		this.grid = loader.getGrid();
+		this.maxInFlight = maxInFlight;
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(numThreads, r -> {
+			final Thread thread = new Thread(r, "python-materializer-" + threadCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Compute all cells of the grid.
+	 *
+	 * @see #run(Interval, Sink, ProgressListener)
+	 */
+	public long run(final Sink<A> sink) throws InterruptedException, ExecutionException {
+		return run(new FinalInterval(grid.getImgDimensions()), sink, (numDone, numCells) -> {});
+	}
+
+	/**
+	 * Compute all cells that intersect {@code interval} and pass them to {@code sink}. Returns once all cells were
+	 * consumed. If Python fails for a cell or the sink throws, no more cells are submitted and the exception is
+	 * rethrown (wrapped in an {@link ExecutionException}) after the cells in flight are done. If this materializer is
+	 * {@link #close() closed} while it runs, the remaining cells fail with a {@link RejectedExecutionException}.
+	 *
+	 * @return number of consumed cells
+	 */
+	public long run(
+			final Interval interval,
+			final Sink<A> sink,
+			final ProgressListener progress) throws InterruptedException, ExecutionException {
+		final Interval cellInterval = cellInterval(interval);
+		if (cellInterval == null)
+			return 0;
+		final long numCells = Intervals.numElements(cellInterval);
+		final long[] gridDimensions = grid.getGridDimensions();
+		final long[] position = new long[gridDimensions.length];
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+		final AtomicLong numDone = new AtomicLong();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		final LocalizingIntervalIterator cells = new LocalizingIntervalIterator(cellInterval);
+		while (cells.hasNext() && failure.get() == null) {
+			cells.fwd();
+			cells.localize(position);
+			final long key = IntervalIndexer.positionToIndex(position, gridDimensions);
+			inFlight.acquire();
+			final Runnable stage = () -> {
+				final CompletableFuture<Cell<A>> cell;
+				try {
+					cell = loader.getAsync(key);
+				} catch (final Throwable e) {
+					failure.compareAndSet(null, e);
+					inFlight.release();
+					return;
+				}
+				cell.whenComplete((c, e) -> {
+					final Runnable consume = () -> {
+						try {
+							if (e != null)
+								throw e;
+							if (!c.getData().isValid())
+								throw new IllegalStateException("Python code failed for cell " + key + ".");
+							sink.accept(key, c);
+							loader.recycleNow(c);
+							progress.progress(numDone.incrementAndGet(), numCells);
+						} catch (final Throwable t) {
+							failure.compareAndSet(null, t);
+						} finally {
+							inFlight.release();
+						}
+					};
+					// consume on the staging threads, not on the Python worker that completes the cell
+					try {
+						executor.execute(consume);
+					} catch (final RejectedExecutionException r) {
+						// closed while the cell was computed
+						if (c != null)
+							loader.recycleNow(c);
+						failure.compareAndSet(null, r);
+						inFlight.release();
+					}
+				});
+			};
+			try {
+				executor.execute(stage);
+			} catch (final RejectedExecutionException e) {
+				failure.compareAndSet(null, e);
+				inFlight.release();
+			}
+		}
+		// wait for all cells in flight
+		inFlight.acquire(maxInFlight);
+		inFlight.release(maxInFlight);
+		if (failure.get() != null)
+			throw new ExecutionException(failure.get());
+		return numDone.get();
+	}
+
+	/**
+	 * @return grid positions of the cells that intersect {@code interval}, or {@code null} if there are none
+	 */
+	private Interval cellInterval(final Interval interval) {
+		final Interval clipped = Intervals.intersect(interval, new FinalInterval(grid.getImgDimensions()));
+		for (int d = 0; d < clipped.numDimensions(); ++d)
+			if (clipped.max(d) < clipped.min(d))
+				return null;
+		final int[] cellDimensions = new int[grid.numDimensions()];
+		grid.cellDimensions(cellDimensions);
+		final long[] min = new long[cellDimensions.length];
+		final long[] max = new long[cellDimensions.length];
+		for (int d = 0; d < min.length; ++d) {
+			min[d] = clipped.min(d) / cellDimensions[d];
+			max[d] = clipped.max(d) / cellDimensions[d];
+		}
+		return new FinalInterval(min, max);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,290 @@
+package net.imglib2.cache.python;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.LoaderCache;
+import net.imglib2.img.basictypeaccess.nio.BufferAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.IntervalIndexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link CacheLoader} that loads cells with a {@link PythonCacheLoader} and speculatively computes the neighbors of
+ * each requested cell within {@code radius} (in cells of the {@link CellGrid}). If requests move consistently along a
+ * dimension, e.g. when browsing slice by slice, up to {@code maxLookAhead} additional cells ahead are computed. The
+ * faster the requests move compared to the time Python needs for a cell, the further ahead.
+ * <p>
+ * Prefetched cells are submitted with a lower priority than requested cells and only handed to the cache when they
+ * are requested, i.e. the first request of a prefetched cell still reaches this loader and triggers the next
+ * prefetch. At most {@code maxPrefetchedCells} cells are queued, running, or waiting to be requested at any time.
+ * Queued prefetches that fall out of range are cancelled. Staging and submission of prefetches run on a separate
+ * thread.
+ */
+public class GridPrefetcher<A extends BufferAccess<A>> implements CacheLoader<Long, Cell<A>>, AutoCloseable {
+
+	/**
+	 * Weight of a new sample in the moving averages of step direction, step interval, and latency.
+	 */
+	private static final double SMOOTHING = 0.3;
+
+	private final PythonCacheLoader<?, A> loader;
+	private final LoaderCache<Long, Cell<A>> cache;
+	private final CellGrid grid;
+	private final long[] gridDimensions;
+	private final int[] radius;
+	private final int maxLookAhead;
+	private final int maxPrefetchedCells;
+	private final int priority;
+
+	private final HashMap<Long, CompletableFuture<Cell<A>>> prefetched = new HashMap<>();
+
+	private final ExecutorService executor;
+	private final AtomicReference<long[]> nextCenter = new AtomicReference<>();
+	private volatile boolean closed = false;
+	private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+
+	// access statistics, guarded by this
+	private long[] lastPosition = null;
+	private final double[] step;
+	private final double[] stepIntervalNanos;
+	private final long[] lastStepNanos;
+	private double latencyNanos = 0;
+
+	/**
+	 * @param loader computes the cells
+	 * @param cache cache of the {@code CachedCellImg} that uses this loader, to skip cells that are present already
+	 * @param radius prefetch radius in cells, per dimension
+	 * @param maxLookAhead maximum number of additional cells to prefetch in the direction of movement
+	 * @param maxPrefetchedCells maximum number of prefetched cells that are queued, running, or not requested yet
+	 * @param priority worker queue priority of prefetched cells, see {@link PythonWorkerQueue#submit(PythonTask, int, boolean)}
+	 */
+	public GridPrefetcher(
+			final PythonCacheLoader<?, A> loader,
+			final LoaderCache<Long, Cell<A>> cache,
+			final int[] radius,
+			final int maxLookAhead,
+			final int maxPrefetchedCells,
+			final int priority) {
+		this.loader = loader;
+		this.cache = cache;
+		this.grid = loader.getGrid();
+		this.gridDimensions = grid.getGridDimensions();
+		this.radius = radius.clone();
+		this.maxLookAhead = maxLookAhead;
+		this.maxPrefetchedCells = maxPrefetchedCells;
+		this.priority = priority;
+		final int n = grid.numDimensions();
+		this.step = new double[n];
+		this.stepIntervalNanos = new double[n];
+		this.lastStepNanos = new long[n];
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			final Thread thread = new Thread(r, "python-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Prefetch neighbors within {@code radius}, up to 4 cells ahead, at a lower priority than {@code loader}. Keep at
+	 * most twice the number of cells within {@code radius}.
+	 */
+	public GridPrefetcher(
+			final PythonCacheLoader<?, A> loader,
+			final LoaderCache<Long, Cell<A>> cache,
+			final int... radius) {
+		this(loader, cache, radius, 4, 2 * numCellsWithin(radius), loader.getPriority() + 1);
+	}
+
+	@Override
+	public Cell<A> get(final Long key) throws Exception {
+		final long[] position = new long[gridDimensions.length];
+		IntervalIndexer.indexToPosition(key, gridDimensions, position);
+		onAccess(position);
+
+		final CompletableFuture<Cell<A>> future;
+		synchronized (prefetched) {
+			future = prefetched.remove(key);
+		}
+		// Do not wait behind other prefetches if the cell is still queued.
+		if (future != null && !future.cancel(false)) {
+			try {
+				final Cell<A> cell = future.get();
+				if (cell.getData().isValid())
+					return cell;
+			} catch (final CancellationException | ExecutionException e) {
+				// load on demand
+			}
+		}
+
+		final long start = System.nanoTime();
+		final Cell<A> cell = loader.get(key);
+		synchronized (this) {
+			latencyNanos = latencyNanos == 0
+					? System.nanoTime() - start
+					: (1 - SMOOTHING) * latencyNanos + SMOOTHING * (System.nanoTime() - start);
+		}
+		return cell;
+	}
+
+	private void onAccess(final long[] position) {
+		synchronized (this) {
+			final long now = System.nanoTime();
+			if (lastPosition != null) {
+				for (int d = 0; d < position.length; ++d) {
+					final long delta = Long.signum(position[d] - lastPosition[d]);
+					if (delta == 0)
+						continue;
+					step[d] = (1 - SMOOTHING) * step[d] + SMOOTHING * delta;
+					if (lastStepNanos[d] != 0)
+						stepIntervalNanos[d] = stepIntervalNanos[d] == 0
+								? now - lastStepNanos[d]
+								: (1 - SMOOTHING) * stepIntervalNanos[d] + SMOOTHING * (now - lastStepNanos[d]);
+					lastStepNanos[d] = now;
+				}
+			}
+			lastPosition = position.clone();
+		}
+		if (closed)
+			return;
+		nextCenter.set(position);
+		if (isScheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this::prefetch);
+			} catch (final RejectedExecutionException e) {
+				// closed concurrently, load without prefetching
+			}
+		}
+	}
+
+	/**
+	 * Prefetch around the most recently requested cell. Stops early if another cell was requested meanwhile.
+	 */
+	private void prefetch() {
+		isScheduled.set(false);
+		final long[] center = nextCenter.get();
+		final List<Long> candidates = candidates(center);
+		final Set<Long> inRange = new HashSet<>(candidates);
+
+		synchronized (prefetched) {
+			for (final Iterator<Map.Entry<Long, CompletableFuture<Cell<A>>>> it = prefetched.entrySet().iterator(); it.hasNext(); ) {
+				final Map.Entry<Long, CompletableFuture<Cell<A>>> entry = it.next();
+				if (!inRange.contains(entry.getKey()) && (entry.getValue().cancel(false) || entry.getValue().isDone()))
+					it.remove();
+			}
+		}
+
+		for (final Long key : candidates) {
+			if (isScheduled.get() || closed)
+				return;
+			synchronized (prefetched) {
+				if (prefetched.size() >= maxPrefetchedCells)
+					return;
+				if (prefetched.containsKey(key))
+					continue;
+			}
+			if (cache.getIfPresent(key) != null)
+				continue;
+			try {
+				final CompletableFuture<Cell<A>> future = loader.getAsync(key, priority, false);
+				synchronized (prefetched) {
+					prefetched.put(key, future);
+				}
+			} catch (final RuntimeException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return keys of all cells to prefetch around {@code center}, nearest first
+	 */
+	private List<Long> candidates(final long[] center) {
+		final int n = center.length;
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		synchronized (this) {
+			for (int d = 0; d < n; ++d) {
+				min[d] = center[d] - radius[d];
+				max[d] = center[d] + radius[d];
+				// steps in a consistent direction: look ahead as far as Python cannot keep up
+				if (Math.abs(step[d]) > 0.5 && stepIntervalNanos[d] > 0) {
+					final int lookAhead = (int) Math.min(maxLookAhead, Math.ceil(latencyNanos / stepIntervalNanos[d]));
+					if (step[d] > 0)
+						max[d] += lookAhead;
+					else
+						min[d] -= lookAhead;
+				}
+				min[d] = Math.max(min[d], 0);
+				max[d] = Math.min(max[d], gridDimensions[d] - 1);
+			}
+		}
+
+		final List<long[]> positions = new ArrayList<>();
+		final long[] position = min.clone();
+		while (true) {
+			if (!Arrays.equals(position, center))
+				positions.add(position.clone());
+			int d = 0;
+			for (; d < n; ++d) {
+				if (position[d] < max[d]) {
+					++position[d];
+					break;
+				}
+				position[d] = min[d];
+			}
+			if (d == n)
+				break;
+		}
+		positions.sort(Comparator.comparingLong(p -> distance(p, center)));
+
+		final List<Long> keys = new ArrayList<>();
+		for (final long[] p : positions)
+			keys.add(IntervalIndexer.positionToIndex(p, gridDimensions));
+		return keys;
+	}
+
+	private static long distance(final long[] p, final long[] q) {
+		long distance = 0;
+		for (int d = 0; d < p.length; ++d)
+			distance += Math.abs(p[d] - q[d]);
+		return distance;
+	}
+
+	private static int numCellsWithin(final int[] radius) {
+		int numCells = 1;
+		for (final int r : radius)
+			numCells *= 2 * r + 1;
+		return numCells;
+	}
+
+	/**
+	 * Stop prefetching and cancel all queued prefetches. Cells can still be loaded afterwards, without prefetching.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		executor.shutdownNow();
+		synchronized (prefetched) {
+			prefetched.values().forEach(f -> f.cancel(false));
+			prefetched.clear();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package net.imglib2.cache.python;
+
+import jep.Interpreter;
+import jep.JepException;
+
+import java.util.List;
+
+/**
+ * Executes tasks on an embedded {@link Interpreter}.
+ */
+class InterpreterRuntime implements PythonRuntime {
+
+	private final Interpreter python;
+
+	private InterpreterRuntime(final Interpreter python) {
+		this.python = python;
+	}
+
+	static PythonRuntime.Factory factory(final PythonInterpreterFactory interpreterFactory) {
+		return init -> create(interpreterFactory, init);
+	}
+
+	static InterpreterRuntime create(final PythonInterpreterFactory interpreterFactory, final String init) throws JepException {
+		final Interpreter python = interpreterFactory.create();
+		try {
+			initialize(python, init);
+		} catch (final JepException e) {
+			python.close();
+			throw e;
+		}
+		return new InterpreterRuntime(python);
+	}
+
+	/**
+	 * Imported and defined in every embedded interpreter before its init code.
+	 */
+	static final String DEFAULT_INIT = String.join(
+			"\n",
+			"from dataclasses import dataclass",
+			"import numpy as np",
+			"@dataclass",
+			"class Block:",
+			"    data: np.ndarray",
+			"    inputs: list",
+			"    index: int",
+			"    min: tuple",
+			"    max: tuple",
+			"    dim: tuple",
+			"    halo: tuple",
+			"    outputs: dict = None"
+	);
+
+	private static void initialize(Interpreter python, String initBlock) throws JepException {
+		// the init of a PythonCacheLoaderQueue includes the default init already
+		if (initBlock == null || !initBlock.startsWith(DEFAULT_INIT))
+			python.exec(DEFAULT_INIT);
+		if (initBlock != null)
+			python.exec(initBlock);
+	}
+
+	@Override
+	public <T> T execute(final PythonTask<T> task) throws Exception {
+		return task.execute(python);
+	}
+
+	@Override
+	public void execute(final PythonBatch batch, final List<? extends PythonTask<?>> tasks) throws Exception {
+		batch.execute(python, tasks);
+	}
+
+	@Override
+	public void close() throws JepException {
+		python.close();
+	}
+}
@@ -0,0 +1,127 @@
+package net.imglib2.cache.python;
+
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.LoaderCache;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.basictypeaccess.nio.BufferAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Images of all outputs of a {@link PythonCacheLoader}: {@code block.data} and the additional outputs in
+ * {@code block.outputs} (see {@link PythonCacheLoader#withOutput(String, NativeType)}). The Python code runs once per
+ * cell for all outputs: the thread that loads a cell of one image also puts the cells of the other outputs into their
+ * caches, and concurrent loads of the same cell in other images wait for it.
+ */
+public class LinkedCachedCellImgs<T extends NativeType<T>, A extends BufferAccess<A>> {
+
+	private final PythonCacheLoader<T, A> loader;
+	private final CachedCellImg<T, A> data;
+	private final Map<String, CachedCellImg<?, ?>> outputs = new LinkedHashMap<>();
+	private final Map<String, NativeType<?>> types = new LinkedHashMap<>();
+	private final List<LoaderCache<Long, Cell<?>>> caches = new ArrayList<>();
+	private final ConcurrentHashMap<Long, CompletableFuture<Cell<?>[]>> loading = new ConcurrentHashMap<>();
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	LinkedCachedCellImgs(final PythonCacheLoader<T, A> loader, final Supplier<LoaderCache<Long, Cell<?>>> cacheFactory) {
+		this.loader = loader;
+		final CellGrid grid = loader.getGrid();
+		final List<PythonCacheLoader.Output> outputs = loader.getOutputs();
+		for (int i = 0; i <= outputs.size(); ++i)
+			caches.add(cacheFactory.get());
+		this.data = new CachedCellImg<>(grid, loader.getType(), (Cache) caches.get(0).withLoader(new OutputLoader(0)), loader.getAccessType());
+		for (int i = 0; i < outputs.size(); ++i) {
+			final PythonCacheLoader.Output output = outputs.get(i);
+			this.outputs.put(output.getName(), new CachedCellImg(
+					grid,
+					(NativeType) output.getType(),
+					(Cache) caches.get(i + 1).withLoader(new OutputLoader(i + 1)),
+					output.getAccessType()));
+			this.types.put(output.getName(), output.getType());
+		}
+	}
+
+	/**
+	 * @return image of {@code block.data}
+	 */
+	public CachedCellImg<T, A> getData() {
+		return data;
+	}
+
+	/**
+	 * @return image of {@code block.outputs[name]}
+	 */
+	public CachedCellImg<?, ?> get(final String name) {
+		final CachedCellImg<?, ?> img = outputs.get(name);
+		if (img == null)
+			throw new IllegalArgumentException("No output " + name + ", expected one of " + outputs.keySet());
+		return img;
+	}
+
+	/**
+	 * @return image of {@code block.outputs[name]}, which must be of {@code type}
+	 */
+	@SuppressWarnings("unchecked")
+	public <U extends NativeType<U>> CachedCellImg<U, ?> get(final String name, final U type) {
+		final CachedCellImg<?, ?> img = get(name);
+		if (types.get(name).getClass() != type.getClass())
+			throw new IllegalArgumentException("Output " + name + " is of type " + types.get(name).getClass().getSimpleName() + " but not " + type.getClass().getSimpleName());
+		return (CachedCellImg<U, ?>) img;
+	}
+
+	/**
+	 * @return names of the additional outputs
+	 */
+	public Set<String> getOutputNames() {
+		return Collections.unmodifiableSet(outputs.keySet());
+	}
+
+	private Cell<?> load(final int output, final Long key) throws ExecutionException, InterruptedException {
+		final CompletableFuture<Cell<?>[]> cells = new CompletableFuture<>();
+		final CompletableFuture<Cell<?>[]> running = loading.putIfAbsent(key, cells);
+		// other images wait for the running load and do not fill any caches
+		if (running != null)
+			return running.get()[output];
+		try {
+			cells.complete(loader.getWithOutputs(key));
+			// loads of the same cell by the other caches complete with the cells of this load
+			for (int i = 0; i < caches.size(); ++i) {
+				final Cell<?> cell = cells.get()[i];
+				if (i != output)
+					caches.get(i).get(key, k -> cell);
+			}
+			return cells.get()[output];
+		} catch (final RuntimeException | Error e) {
+			cells.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(key, cells);
+		}
+	}
+
+	private class OutputLoader implements CacheLoader<Long, Cell<?>> {
+		private final int output;
+
+		private OutputLoader(final int output) {
+			this.output = output;
+		}
+
+		@Override
+		public Cell<?> get(final Long key) throws Exception {
+			return load(output, key);
+		}
+	}
+}
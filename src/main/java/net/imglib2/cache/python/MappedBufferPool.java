@@ -0,0 +1,92 @@
+package net.imglib2.cache.python;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link DirectBufferPool} that allocates buffers as slices of large memory-mapped scratch files (slabs) instead of
+ * native memory. The operating system writes pages of cells that are not in use to the scratch files and reads them
+ * back on access, i.e. the cache can hold more cells than fit into RAM. Slices are direct buffers and are passed to
+ * Python without a copy.
+ * <p>
+ * All returned buffers are kept for reuse, i.e. the scratch files grow up to the peak number of bytes in use. Scratch
+ * files are deleted right after they were mapped on platforms that support deletion of open files (e.g. Linux and
+ * macOS). Their disk space is freed once all slices of a slab have been garbage collected.
+ */
+public class MappedBufferPool extends DirectBufferPool {
+
+	/**
+	 * Slices start at multiples of this alignment, e.g. for aligned access to 64-bit and SIMD types in numpy.
+	 */
+	private static final int ALIGNMENT = 64;
+
+	private final Path directory;
+	private final int slabBytes;
+	private MappedByteBuffer slab = null;
+	private long mappedBytes = 0;
+
+	/**
+	 * @param directory directory for the scratch files, preferably on a local disk
+	 * @param slabBytes size of each scratch file, buffers larger than that are mapped from a scratch file of their own
+	 */
+	public MappedBufferPool(final Path directory, final int slabBytes) {
+		super(Long.MAX_VALUE);
+		if (slabBytes < ALIGNMENT)
+			throw new IllegalArgumentException("Slab size must be at least " + ALIGNMENT + " but got " + slabBytes);
+		this.directory = directory;
+		this.slabBytes = slabBytes;
+	}
+
+	/**
+	 * Create a pool with slabs of 1 GiB in the default temporary-file directory.
+	 */
+	public MappedBufferPool() throws IOException {
+		this(Files.createTempDirectory("python-cells"), 1 << 30);
+	}
+
+	@Override
+	protected synchronized ByteBuffer allocate(final int numBytes) {
+		if (numBytes > slabBytes)
+			return map(numBytes);
+		if (slab == null || slab.remaining() < numBytes)
+			slab = map(slabBytes);
+		final int position = slab.position();
+		slab.limit(position + numBytes);
+		final ByteBuffer buffer = slab.slice();
+		slab.limit(slab.capacity());
+		slab.position(Math.min(slab.capacity(), position + (numBytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT));
+		return buffer;
+	}
+
+	/**
+	 * @return total size of all scratch files that were mapped so far
+	 */
+	public synchronized long getMappedBytes() {
+		return mappedBytes;
+	}
+
+	private MappedByteBuffer map(final int numBytes) {
+		try {
+			Files.createDirectories(directory);
+			final Path file = Files.createTempFile(directory, "cells-", ".slab");
+			// the mapping stays valid after the channel is closed, the file is deleted once it is unmapped
+			try (final FileChannel channel = FileChannel.open(
+					file,
+					StandardOpenOption.READ,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE)) {
+				final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, numBytes);
+				mappedBytes += numBytes;
+				return mapped;
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package net.imglib2.cache.python;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Byte budget that is shared by any number of {@link BudgetedLoaderCache}s, e.g. of several loaders and worker
+ * queues in the same JVM. When the total size of all cached values exceeds the budget, the least recently used values
+ * of all caches are evicted.
+ */
+public class NativeMemoryBudget {
+
+	/**
+	 * Cache entry that is accounted in a budget.
+	 */
+	interface Entry {
+
+		long getBytes();
+
+		/**
+		 * Remove this entry from its cache. Called without holding the lock of the budget.
+		 */
+		void evict();
+	}
+
+	private final long maxBytes;
+	// access order, i.e. least recently used first
+	private final LinkedHashMap<Entry, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long usedBytes = 0;
+
+	public NativeMemoryBudget(final long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return total size of all values that are currently cached within this budget
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * Account for {@code entry} and evict least recently used entries until the budget is met again. {@code entry}
+	 * itself is never evicted here, even if it exceeds the budget on its own.
+	 */
+	void add(final Entry entry) {
+		final List<Entry> evicted = new ArrayList<>();
+		synchronized (this) {
+			if (entries.put(entry, entry) == null)
+				usedBytes += entry.getBytes();
+			for (final Iterator<Entry> it = entries.keySet().iterator(); usedBytes > maxBytes && it.hasNext(); ) {
+				final Entry eldest = it.next();
+				if (eldest == entry)
+					continue;
+				it.remove();
+				usedBytes -= eldest.getBytes();
+				evicted.add(eldest);
+			}
+		}
+		evicted.forEach(Entry::evict);
+	}
+
+	synchronized void touch(final Entry entry) {
+		entries.get(entry);
+	}
+
+	/**
+	 * @return {@code true} if {@code entry} was accounted in this budget, i.e. was not evicted already
+	 */
+	synchronized boolean remove(final Entry entry) {
+		if (entries.remove(entry) == null)
+			return false;
+		usedBytes -= entry.getBytes();
+		return true;
+	}
+}
@@ -0,0 +1,37 @@
+package net.imglib2.cache.python;
+
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.basictypeaccess.nio.BufferAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+
+/**
+ * {@link CachedCellImg} whose cells are loaded by a {@link GridPrefetcher} (see
+ * {@link PythonCacheLoader#createPrefetchingCachedCellImg(long, int...)}). {@link #close() Close} it to stop the
+ * prefetcher thread and cancel the queued prefetches. The image can still be used afterwards, without prefetching.
+ */
+public class PrefetchingCachedCellImg<T extends NativeType<T>, A extends BufferAccess<A>> extends CachedCellImg<T, A> implements AutoCloseable {
+
+	private final GridPrefetcher<A> prefetcher;
+
+	PrefetchingCachedCellImg(
+			final CellGrid grid,
+			final T type,
+			final Cache<Long, Cell<A>> cache,
+			final A accessType,
+			final GridPrefetcher<A> prefetcher) {
+		super(grid, type, cache, accessType);
+		this.prefetcher = prefetcher;
+	}
+
+	public GridPrefetcher<A> getPrefetcher() {
+		return prefetcher;
+	}
+
+	@Override
+	public void close() {
+		prefetcher.close();
+	}
+}
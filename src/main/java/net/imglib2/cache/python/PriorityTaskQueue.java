@@ -0,0 +1,153 @@
+package net.imglib2.cache.python;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Blocking queue with priority levels. Elements with a lower priority value are taken first. Within a level, elements
+ * are taken in the order they were put, except for elements that were put to the front (LIFO).
+ */
+class PriorityTaskQueue<E> {
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final TreeMap<Integer, ArrayDeque<E>> levels = new TreeMap<>();
+	private int size = 0;
+
+	void put(final E element, final int priority, final boolean enqueueToFront) {
+		lock.lock();
+		try {
+			final ArrayDeque<E> level = levels.computeIfAbsent(priority, p -> new ArrayDeque<>());
+			if (enqueueToFront)
+				level.addFirst(element);
+			else
+				level.addLast(element);
+			++size;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	E take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (levels.isEmpty())
+				notEmpty.await();
+			return pollFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the next element or {@code null} if none became available within {@code timeout}
+	 */
+	E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (levels.isEmpty()) {
+				if (nanos <= 0)
+					return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return pollFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the next element or {@code null} if empty, without waiting
+	 */
+	E poll() {
+		lock.lock();
+		try {
+			return levels.isEmpty() ? null : pollFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return priority of the next element or {@code null} if empty
+	 */
+	Integer peekPriority() {
+		lock.lock();
+		try {
+			return levels.isEmpty() ? null : levels.firstKey();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Remove and return the first element (in the order of {@link #take()}) that matches {@code filter}.
+	 */
+	E removeFirst(final Predicate<? super E> filter) {
+		lock.lock();
+		try {
+			for (final Iterator<Map.Entry<Integer, ArrayDeque<E>>> it = levels.entrySet().iterator(); it.hasNext(); ) {
+				final ArrayDeque<E> level = it.next().getValue();
+				for (final Iterator<E> elements = level.iterator(); elements.hasNext(); ) {
+					final E element = elements.next();
+					if (filter.test(element)) {
+						elements.remove();
+						--size;
+						if (level.isEmpty())
+							it.remove();
+						return element;
+					}
+				}
+			}
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean remove(final E element) {
+		return removeFirst(e -> e == element) != null;
+	}
+
+	List<E> drain() {
+		lock.lock();
+		try {
+			final List<E> elements = new ArrayList<>();
+			for (final ArrayDeque<E> level : levels.values())
+				elements.addAll(level);
+			levels.clear();
+			size = 0;
+			return elements;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private E pollFirst() {
+		final Map.Entry<Integer, ArrayDeque<E>> first = levels.firstEntry();
+		final E element = first.getValue().pollFirst();
+		--size;
+		if (first.getValue().isEmpty())
+			levels.remove(first.getKey());
+		return element;
+	}
+}
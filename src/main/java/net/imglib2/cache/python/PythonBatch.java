@@ -0,0 +1,24 @@
+package net.imglib2.cache.python;
+
+import jep.Interpreter;
+
+import java.util.List;
+
+/**
+ * Groups {@link PythonTask}s that can be executed together in a single Python call. Tasks are only batched with other
+ * tasks that return the identical (same instance) {@link PythonBatch} from {@link PythonTask#batch()}.
+ */
+interface PythonBatch {
+
+	/**
+	 * @return maximum number of tasks per batch
+	 */
+	int getMaxSize();
+
+	/**
+	 * @return maximum time (in nanoseconds) that a worker waits for more tasks before executing an incomplete batch
+	 */
+	long getMaxLingerNanos();
+
+	void execute(Interpreter python, List<? extends PythonTask<?>> tasks) throws Exception;
+}
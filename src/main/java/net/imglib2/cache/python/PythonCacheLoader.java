@@ -8,7 +8,12 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.cache.CacheLoader;
 import net.imglib2.cache.LoaderCache;
 import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.VolatileCachedCellImg;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
 import net.imglib2.cache.ref.GuardedStrongRefLoaderCache;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
 import net.imglib2.img.NativeImg;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.basictypeaccess.ByteAccess;
@@ -29,18 +34,29 @@ import net.imglib2.img.basictypeaccess.nio.ShortBufferAccess;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.loops.LoopBuilder;
+import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
+import net.imglib2.transform.integer.MixedTransform;
 import net.imglib2.type.NativeType;
 import net.imglib2.util.Intervals;
 import net.imglib2.util.Util;
 import net.imglib2.view.ExtendedRandomAccessibleInterval;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.MixedTransformView;
 import net.imglib2.view.Views;
 
+import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A>> implements CacheLoader<Long, Cell<A>> {
@@ -48,6 +64,32 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 	public interface InputGenerator {
 		DirectNDArray<?> createInputFor(Interval interval);
 
+		/**
+		 * Create input for {@code interval} and draw any buffers that need to be allocated from {@code pool}. Views
+		 * of these buffers must be registered with {@link DirectBufferPool#track(Buffer, ByteBuffer)}: they are
+		 * returned to the pool as soon as the Python task completes.
+		 */
+		default DirectNDArray<?> createInputFor(final Interval interval, final DirectBufferPool pool) {
+			return createInputFor(interval);
+		}
+
+		/**
+		 * Create input for {@code interval} like {@link #createInputFor(Interval, DirectBufferPool)} and run any
+		 * copies on {@code staging} (if not {@code null}).
+		 */
+		default DirectNDArray<?> createInputFor(final Interval interval, final DirectBufferPool pool, final StagingExecutor staging) {
+			return createInputFor(interval, pool);
+		}
+
+		/**
+		 * @return key that identifies the source of the input for {@code interval}, e.g. the {@link RandomAccessible}
+		 * that is copied, or {@code null} if the input must not be shared through a {@link StagingCache}, e.g. because
+		 * it is not copied anyway
+		 */
+		default Object stagingKey(final Interval interval) {
+			return null;
+		}
+
 		static int[] getNDArrayShape(final Interval interval) {
 			return reversedArray(Intervals.dimensionsAsIntArray(interval));
 		}
@@ -66,6 +108,10 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 					return new ForCachedCellImg((CachedCellImg<?, ? extends BufferAccess<?>>) img);
 			}
 
+			final ForStridedView view = ForStridedView.of(source);
+			if (view != null)
+				return view;
+
 			return new ForRandomAccessible(source);
 		}
 
@@ -78,16 +124,40 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 
 			@Override
 			public DirectNDArray<?> createInputFor(Interval interval) {
+				return createInputFor(interval, null);
+			}
+
+			@Override
+			public DirectNDArray<?> createInputFor(final Interval interval, final DirectBufferPool pool) {
+				return createInputFor(interval, pool, null);
+			}
+
+			@Override
+			public DirectNDArray<?> createInputFor(final Interval interval, final DirectBufferPool pool, final StagingExecutor staging) {
 				return new DirectNDArray<>(
-						copyToBuffer(source, interval),
+						copyToBuffer(source, interval, pool, staging),
 						getNDArrayShape(interval));
 			}
+
+			@Override
+			public Object stagingKey(final Interval interval) {
+				return source;
+			}
 		}
 
+		/**
+		 * Passes cells of {@code img} to Python without copying if the requested interval matches a single cell.
+		 * Otherwise, e.g. with a {@link Halo}, the input is assembled from the buffers of all overlapping cells with
+		 * bulk copies per row. Out-of-bounds regions are filled in bulk if {@code img} is extended by a constant value.
+		 * All other cases fall back to {@link ForRandomAccessible}.
+		 */
 		class ForCachedCellImg implements InputGenerator {
 			private final CachedCellImg<?, ? extends BufferAccess<?>> img;
+			private final RandomAccessible<? extends NativeType<?>> source;
 			private final ForRandomAccessible fallback;
 			private final int[] cellDimensions;
+			private final NativeType<?> type;
+			private final boolean isConstantOutOfBounds;
 
 			public ForCachedCellImg(final CachedCellImg<?, ? extends BufferAccess<?>> img) {
 				this(img, img);
@@ -98,22 +168,221 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 					final RandomAccessible<? extends NativeType<?>> fallback
 					) {
 				this.img = img;
+				this.source = fallback;
 				this.fallback = new ForRandomAccessible(fallback);
 				this.cellDimensions = new int[img.numDimensions()];
 				this.img.getCellGrid().cellDimensions(this.cellDimensions);
+				this.type = Util.getTypeFromInterval(img);
+				this.isConstantOutOfBounds = fallback instanceof ExtendedRandomAccessibleInterval<?, ?>
+						&& ((ExtendedRandomAccessibleInterval<?, ?>) fallback).getOutOfBoundsFactory() instanceof OutOfBoundsConstantValueFactory;
 			}
 
-
 			@Override
 			public DirectNDArray<?> createInputFor(final Interval interval) {
+				return createInputFor(interval, null);
+			}
+
+			@Override
+			public DirectNDArray<?> createInputFor(final Interval interval, final DirectBufferPool pool) {
+				return createInputFor(interval, pool, null);
+			}
+
+			@Override
+			public DirectNDArray<?> createInputFor(final Interval interval, final DirectBufferPool pool, final StagingExecutor staging) {
 				if (isCompatible(interval)) {
 					final long[] position = new long[interval.numDimensions()];
 					this.img.getCellGrid().getCellPosition(Intervals.minAsLongArray(interval), position);
-					final Buffer buffer = (Buffer) this.img.getCells().getAt(position).getData().getCurrentStorageArray();
+					final BufferAccess<?> access = this.img.getCells().getAt(position).getData();
+					final Buffer buffer = (Buffer) access.getCurrentStorageArray();
 					if (buffer.isDirect())
-						return new DirectNDArray<>(buffer, getNDArrayShape(interval));
+						return new CellNDArray<>(buffer, access, getNDArrayShape(interval));
 				}
-				return fallback.createInputFor(interval);
+				if (canStitch(interval))
+					return new DirectNDArray<>(stitch(interval, pool, staging), getNDArrayShape(interval));
+				return fallback.createInputFor(interval, pool, staging);
+			}
+
+			@Override
+			public Object stagingKey(final Interval interval) {
+				// single cells are passed without a copy
+				return isCompatible(interval) ? null : source;
+			}
+
+			private boolean canStitch(final Interval interval) {
+				final double entitiesPerPixel = type.getEntitiesPerPixel().getRatio();
+				if (entitiesPerPixel != Math.rint(entitiesPerPixel))
+					return false;
+				return isConstantOutOfBounds || Intervals.contains(img, interval);
+			}
+
+			private Buffer stitch(final Interval interval, final DirectBufferPool pool, final StagingExecutor staging) {
+				final int n = interval.numDimensions();
+				final int entitiesPerPixel = (int) type.getEntitiesPerPixel().getRatio();
+				final ByteBuffer bytes = appropriateDirectBuffer(type, interval, pool, false);
+				final Buffer target = asTypedBuffer(bytes, type);
+
+				final long[] targetStrides = new long[n];
+				targetStrides[0] = entitiesPerPixel;
+				for (int d = 1; d < n; ++d)
+					targetStrides[d] = targetStrides[d - 1] * interval.dimension(d - 1);
+
+				final Interval inBounds = Intervals.intersect(img, interval);
+				if (!Intervals.isEmpty(inBounds))
+					copyCells(inBounds, interval, target, targetStrides, entitiesPerPixel, staging);
+				if (!Intervals.contains(img, interval))
+					fillOutOfBounds(interval, target, targetStrides, constantValue());
+
+				return pool == null ? target : pool.track(target, bytes);
+			}
+
+			/**
+			 * Copy the rows of all cells that overlap {@code inBounds} into {@code target}, which holds {@code interval}.
+			 * The cells are split into chunks that are copied with multiple threads of {@code staging} (if not
+			 * {@code null}). Cells do not overlap, i.e. the chunks write disjoint parts of {@code target}, and
+			 * {@link Buffers#copy(Buffer, int, Buffer, int, int)} does not change the position of {@code target}.
+			 */
+			private void copyCells(
+					final Interval inBounds,
+					final Interval interval,
+					final Buffer target,
+					final long[] targetStrides,
+					final int entitiesPerPixel,
+					final StagingExecutor staging) {
+				final int n = interval.numDimensions();
+				final CellGrid grid = img.getCellGrid();
+				final long[] gridMin = new long[n];
+				final long[] gridMax = new long[n];
+				grid.getCellPosition(Intervals.minAsLongArray(inBounds), gridMin);
+				grid.getCellPosition(Intervals.maxAsLongArray(inBounds), gridMax);
+
+				final List<long[]> gridPositions = new ArrayList<>();
+				final long[] gridPosition = gridMin.clone();
+				do {
+					gridPositions.add(gridPosition.clone());
+				} while (next(gridPosition, gridMin, gridMax));
+
+				final int numChunks = staging == null ? 1 : Math.min(staging.getParallelism(), gridPositions.size());
+				if (numChunks == 1) {
+					for (final long[] position : gridPositions)
+						copyCell(position, inBounds, interval, target, targetStrides, entitiesPerPixel);
+					return;
+				}
+				final List<Runnable> chunks = new ArrayList<>();
+				for (int c = 0; c < numChunks; ++c) {
+					final List<long[]> chunk = gridPositions.subList(
+							c * gridPositions.size() / numChunks,
+							(c + 1) * gridPositions.size() / numChunks);
+					chunks.add(() -> {
+						for (final long[] position : chunk)
+							copyCell(position, inBounds, interval, target, targetStrides, entitiesPerPixel);
+					});
+				}
+				staging.invokeAll(chunks);
+			}
+
+			/**
+			 * Copy the rows of the cell at {@code gridPosition} that overlap {@code inBounds} into {@code target}.
+			 */
+			private void copyCell(
+					final long[] gridPosition,
+					final Interval inBounds,
+					final Interval interval,
+					final Buffer target,
+					final long[] targetStrides,
+					final int entitiesPerPixel) {
+				final int n = interval.numDimensions();
+				final long[] cellMin = new long[n];
+				final int[] cellDims = new int[n];
+				final long[] cellStrides = new long[n];
+				final long[] overlapMin = new long[n];
+				final long[] overlapMax = new long[n];
+				final long[] position = new long[n];
+				img.getCellGrid().getCellDimensions(gridPosition, cellMin, cellDims);
+				final Buffer cell = (Buffer) img.getCells().getAt(gridPosition).getData().getCurrentStorageArray();
+				cellStrides[0] = entitiesPerPixel;
+				for (int d = 1; d < n; ++d)
+					cellStrides[d] = cellStrides[d - 1] * cellDims[d - 1];
+				for (int d = 0; d < n; ++d) {
+					overlapMin[d] = Math.max(cellMin[d], inBounds.min(d));
+					overlapMax[d] = Math.min(cellMin[d] + cellDims[d] - 1, inBounds.max(d));
+				}
+
+				final int rowLength = (int) (overlapMax[0] - overlapMin[0] + 1) * entitiesPerPixel;
+				System.arraycopy(overlapMin, 0, position, 0, n);
+				do {
+					long sourceOffset = 0;
+					long targetOffset = 0;
+					for (int d = 0; d < n; ++d) {
+						sourceOffset += (position[d] - cellMin[d]) * cellStrides[d];
+						targetOffset += (position[d] - interval.min(d)) * targetStrides[d];
+					}
+					Buffers.copy(cell, (int) sourceOffset, target, (int) targetOffset, rowLength);
+				} while (nextRow(position, overlapMin, overlapMax));
+			}
+
+			/**
+			 * Fill all parts of the rows of {@code interval} that are outside of {@code img} with {@code value}.
+			 */
+			private void fillOutOfBounds(
+					final Interval interval,
+					final Buffer target,
+					final long[] targetStrides,
+					final Buffer value) {
+				final int n = interval.numDimensions();
+				final int entitiesPerPixel = (int) targetStrides[0];
+				final int rowLength = (int) interval.dimension(0) * entitiesPerPixel;
+				final int lower = (int) Math.max(0, Math.min(img.min(0), interval.max(0) + 1) - interval.min(0)) * entitiesPerPixel;
+				final int upper = (int) Math.max(0, interval.max(0) - Math.max(img.max(0), interval.min(0) - 1)) * entitiesPerPixel;
+				final long[] min = Intervals.minAsLongArray(interval);
+				final long[] max = Intervals.maxAsLongArray(interval);
+				final long[] position = min.clone();
+				do {
+					long offset = 0;
+					boolean isRowInBounds = true;
+					for (int d = 1; d < n; ++d) {
+						offset += (position[d] - min[d]) * targetStrides[d];
+						isRowInBounds &= position[d] >= img.min(d) && position[d] <= img.max(d);
+					}
+					if (isRowInBounds) {
+						Buffers.fill(target, (int) offset, lower, value);
+						Buffers.fill(target, (int) offset + rowLength - upper, upper, value);
+					} else
+						Buffers.fill(target, (int) offset, rowLength, value);
+				} while (nextRow(position, min, max));
+			}
+
+			/**
+			 * @return a buffer that holds the out-of-bounds value of a single pixel of {@code source}
+			 */
+			private Buffer constantValue() {
+				final long[] position = new long[img.numDimensions()];
+				position[0] = img.min(0) - 1;
+				return copyToBuffer(source, new FinalInterval(position, position));
+			}
+
+			/**
+			 * Advance {@code position} to the next row, i.e. in all dimensions but the first.
+			 */
+			private static boolean nextRow(final long[] position, final long[] min, final long[] max) {
+				for (int d = 1; d < position.length; ++d) {
+					if (position[d] < max[d]) {
+						++position[d];
+						return true;
+					}
+					position[d] = min[d];
+				}
+				return false;
+			}
+
+			private static boolean next(final long[] position, final long[] min, final long[] max) {
+				for (int d = 0; d < position.length; ++d) {
+					if (position[d] < max[d]) {
+						++position[d];
+						return true;
+					}
+					position[d] = min[d];
+				}
+				return false;
 			}
 
 			private boolean isCompatible(final Interval interval) {
@@ -133,9 +402,213 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 						return false;
 				return true;
 			}
+
+			/**
+			 * Keeps the cell access reachable while the array is in use. Pooled cell buffers are not recycled (see
+			 * {@link DirectBufferPool#recycleWhenUnreachable(Object, ByteBuffer)}) while the array or its storage are
+			 * reachable, even if the cache evicts the cell.
+			 */
+			private static class CellNDArray<B extends Buffer> extends DirectNDArray<B> {
+				@SuppressWarnings("unused")
+				private final Object access;
+
+				private CellNDArray(final B buffer, final Object access, final int... shape) {
+					super(buffer, shape);
+					this.access = access;
+				}
+			}
+		}
+
+		/**
+		 * Passes views of {@link ArrayImg}s and {@link CachedCellImg}s that are backed by direct buffers to Python
+		 * without copying, as strided read-only {@code ndarray}s. Supported views are chains of {@link IntervalView}s
+		 * and {@link MixedTransformView}s that only translate, slice, or permute dimensions, e.g.
+		 * {@link Views#interval}, {@link Views#translate}, {@link Views#hyperSlice}, or {@link Views#permute}, on an
+		 * (optionally extended) image. The requested interval must be within the image and, for a
+		 * {@link CachedCellImg}, within a single cell. All other cases fall back to copies of {@link ForRandomAccessible},
+		 * which are read-only in Python as well.
+		 */
+		class ForStridedView implements InputGenerator {
+			private final RandomAccessibleInterval<?> root;
+			private final MixedTransform toRoot;
+			private final ForRandomAccessible fallback;
+
+			private ForStridedView(
+					final RandomAccessibleInterval<?> root,
+					final MixedTransform toRoot,
+					final RandomAccessible<? extends NativeType<?>> source) {
+				this.root = root;
+				this.toRoot = toRoot;
+				this.fallback = new ForRandomAccessible(source);
+			}
+
+			/**
+			 * @return a generator for {@code source} or {@code null} if {@code source} is not a supported view
+			 */
+			static ForStridedView of(final RandomAccessible<? extends NativeType<?>> source) {
+				final int n = source.numDimensions();
+				RandomAccessible<?> current = source;
+				MixedTransform toRoot = new MixedTransform(n, n);
+				while (true) {
+					if (current instanceof IntervalView<?>)
+						current = ((IntervalView<?>) current).getSource();
+					else if (current instanceof MixedTransformView<?>) {
+						final MixedTransformView<?> view = (MixedTransformView<?>) current;
+						toRoot = view.getTransformToSource().concatenate(toRoot);
+						current = view.getSource();
+					} else if (current instanceof ExtendedRandomAccessibleInterval<?, ?>) {
+						// out-of-bounds values are never read: requests must be within the root
+						current = ((ExtendedRandomAccessibleInterval<?, ?>) current).getSource();
+						if (!isSupportedRoot(current))
+							return null;
+					} else
+						break;
+				}
+				if (!isSupportedRoot(current) || !isStrided(toRoot))
+					return null;
+				return new ForStridedView((RandomAccessibleInterval<?>) current, toRoot, source);
+			}
+
+			private static boolean isSupportedRoot(final RandomAccessible<?> root) {
+				final BufferAccess<?> access;
+				if (root instanceof ArrayImg<?, ?> && ((ArrayImg<?, ?>) root).update(null) instanceof BufferAccess<?>)
+					access = (BufferAccess<?>) ((ArrayImg<?, ?>) root).update(null);
+				else if (root instanceof CachedCellImg<?, ?> && ((CachedCellImg<?, ?>) root).getAccessType() instanceof BufferAccess<?>)
+					access = null;
+				else
+					return false;
+				if (access != null && !((Buffer) access.getCurrentStorageArray()).isDirect())
+					return false;
+				final Object type = Util.getTypeFromInterval((RandomAccessibleInterval<?>) root);
+				return type instanceof NativeType<?> && ((NativeType<?>) type).getEntitiesPerPixel().getRatio() == 1;
+			}
+
+			/**
+			 * @return {@code true} if {@code toRoot} maps each dimension of the view to one dimension of the root
+			 * without inversion
+			 */
+			private static boolean isStrided(final MixedTransform toRoot) {
+				final boolean[] isMapped = new boolean[toRoot.numSourceDimensions()];
+				for (int d = 0; d < toRoot.numTargetDimensions(); ++d) {
+					if (toRoot.getComponentZero(d))
+						continue;
+					final int e = toRoot.getComponentMapping(d);
+					if (toRoot.getComponentInversion(d) || isMapped[e])
+						return false;
+					isMapped[e] = true;
+				}
+				for (final boolean mapped : isMapped)
+					if (!mapped)
+						return false;
+				return true;
+			}
+
+			@Override
+			public DirectNDArray<?> createInputFor(final Interval interval) {
+				return createInputFor(interval, null);
+			}
+
+			@Override
+			public DirectNDArray<?> createInputFor(final Interval interval, final DirectBufferPool pool) {
+				return createInputFor(interval, pool, null);
+			}
+
+			@Override
+			public DirectNDArray<?> createInputFor(final Interval interval, final DirectBufferPool pool, final StagingExecutor staging) {
+				final DirectNDArray<?> view = createView(interval);
+				// copies are read-only in Python like views
+				return view == null ? StridedNDArray.ofCopy(fallback.createInputFor(interval, pool, staging)) : view;
+			}
+
+			private DirectNDArray<?> createView(final Interval interval) {
+				final int m = toRoot.numTargetDimensions();
+				final long[] rootMin = new long[m];
+				final long[] rootMax = new long[m];
+				toRoot.apply(Intervals.minAsLongArray(interval), rootMin);
+				toRoot.apply(Intervals.maxAsLongArray(interval), rootMax);
+				if (!Intervals.contains(root, new FinalInterval(rootMin, rootMax)))
+					return null;
+
+				// storage that holds the interval, its strides, and the position of its first element in the root
+				final BufferAccess<?> access;
+				final long[] storageMin = new long[m];
+				final long[] storageDimensions = new long[m];
+				if (root instanceof ArrayImg<?, ?>) {
+					access = (BufferAccess<?>) ((ArrayImg<?, ?>) root).update(null);
+					root.min(storageMin);
+					root.dimensions(storageDimensions);
+				} else {
+					final CachedCellImg<?, ?> img = (CachedCellImg<?, ?>) root;
+					final CellGrid grid = img.getCellGrid();
+					final long[] cellPosition = new long[m];
+					final long[] maxCellPosition = new long[m];
+					grid.getCellPosition(rootMin, cellPosition);
+					grid.getCellPosition(rootMax, maxCellPosition);
+					if (!Arrays.equals(cellPosition, maxCellPosition))
+						return null;
+					final int[] cellDimensions = new int[m];
+					grid.getCellDimensions(cellPosition, storageMin, cellDimensions);
+					for (int d = 0; d < m; ++d)
+						storageDimensions[d] = cellDimensions[d];
+					access = (BufferAccess<?>) img.getCells().getAt(cellPosition).getData();
+				}
+				final Buffer storage = (Buffer) access.getCurrentStorageArray();
+				if (!storage.isDirect())
+					return null;
+
+				final long[] rootStrides = new long[m];
+				long offset = 0;
+				for (int d = 0; d < m; ++d) {
+					rootStrides[d] = d == 0 ? 1 : rootStrides[d - 1] * storageDimensions[d - 1];
+					offset += (rootMin[d] - storageMin[d]) * rootStrides[d];
+				}
+				final int n = interval.numDimensions();
+				final long[] strides = new long[n];
+				for (int d = 0; d < m; ++d)
+					if (!toRoot.getComponentZero(d))
+						strides[toRoot.getComponentMapping(d)] = rootStrides[d];
+				return new StridedNDArray<>(
+						storage,
+						(int) offset,
+						access,
+						getNDArrayShape(interval),
+						reversedArray(strides));
+			}
 		}
 	}
 
+	/**
+	 * Additional output of the Python code in {@code block.outputs}, see {@link #withOutput(String, NativeType)}.
+	 */
+	static class Output {
+		private final String name;
+		private final NativeType<?> t;
+		private final BufferAccess<?> a;
+
+		private Output(final String name, final NativeType<?> t) {
+			this.name = name;
+			this.t = t;
+			this.a = bufferAccessFor(t);
+		}
+
+		String getName() {
+			return name;
+		}
+
+		NativeType<?> getType() {
+			return t;
+		}
+
+		BufferAccess<?> getAccessType() {
+			return a;
+		}
+	}
+
+	/**
+	 * Keys to cache compiled code in each Python interpreter.
+	 */
+	private static final AtomicLong CODE_KEYS = new AtomicLong();
+
 	private final CellGrid grid;
 	private final String code;
 	private final T t;
@@ -143,6 +616,18 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 	private final PythonCacheLoaderQueue workerQueue;
 	private final Halo halo;
 	private final List<? extends InputGenerator> inputGenerators;
+	private final long codeKey;
+	private PythonCacheLoaderBatch batch = null;
+	private DirectBufferPool bufferPool = null;
+	private StagingExecutor staging = null;
+	private int priority = PythonWorkerQueue.DEFAULT_PRIORITY;
+	private boolean enqueueToFront = false;
+	private DiskCellStore diskCache = null;
+	private int[] affinityRegion = null;
+	private boolean lazyInputs = false;
+	private StagingCache stagingCache = null;
+	private List<Output> outputs = new ArrayList<>();
+	private volatile ByteBuffer emptyCellBuffer = null;
 
 	private PythonCacheLoader(
 			final CellGrid grid,
@@ -161,6 +646,7 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 		this.a = a;
 		this.halo = halo == null ? Halo.empty(grid.numDimensions()) : halo;
 		this.inputGenerators = new ArrayList<>(inputGenerators);
+		this.codeKey = CODE_KEYS.getAndIncrement();
 	}
 
 	private PythonCacheLoader(
@@ -174,6 +660,20 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 		this(grid, workerQueue, code, t, a, halo, Arrays.asList(inputs));
 	}
 
+	private PythonCacheLoader(final PythonCacheLoader<T, A> other) {
+		this(other.grid, other.workerQueue, other.code, other.t, other.a, other.halo, other.inputGenerators);
+		this.batch = other.batch;
+		this.bufferPool = other.bufferPool;
+		this.staging = other.staging;
+		this.priority = other.priority;
+		this.enqueueToFront = other.enqueueToFront;
+		this.diskCache = other.diskCache;
+		this.affinityRegion = other.affinityRegion;
+		this.lazyInputs = other.lazyInputs;
+		this.stagingCache = other.stagingCache;
+		this.outputs = other.outputs;
+	}
+
 	public static <T extends NativeType<T>, A extends BufferAccess<A>> PythonCacheLoader<T, A> fromInputGenerators(
 			final CellGrid grid,
 			final PythonCacheLoaderQueue workerQueue,
@@ -256,9 +756,430 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 		return fromRandomAccessibles(grid, workerQueue, code, t, Arrays.asList(inputs));
 	}
 
+	/**
+	 * Create a copy of this loader that executes up to {@code maxBatchSize} blocks in a single Python call. Instead of
+	 * {@code block}, the code of a batched loader accesses the {@code batch} variable of type {@code Batch} that holds
+	 * the list of {@code blocks} and the {@code inputs} of all blocks stacked along a new leading axis ({@code None} for
+	 * inputs with varying shapes, e.g. at the border of the grid). Workers wait at most {@code maxLinger} for more
+	 * blocks before executing an incomplete batch.
+	 */
+	public PythonCacheLoader<T, A> withBatching(final int maxBatchSize, final long maxLinger, final TimeUnit unit) {
+		if (maxBatchSize < 1)
+			throw new IllegalArgumentException("Maximum batch size must be positive but got " + maxBatchSize);
+		if (maxLinger < 0)
+			throw new IllegalArgumentException("Maximum linger time must not be negative but got " + maxLinger);
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.batch = new PythonCacheLoaderBatch(code, CODE_KEYS.getAndIncrement(), maxBatchSize, unit.toNanos(maxLinger));
+		return copy;
+	}
+
+	/**
+	 * Create a copy of this loader that draws output buffers and input copies from {@code pool}. Input buffers are
+	 * returned to the pool as soon as the Python task completes, output buffers when the cell is no longer reachable,
+	 * i.e. after the cache evicted it.
+	 */
+	public PythonCacheLoader<T, A> withBufferPool(final DirectBufferPool pool) {
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.bufferPool = pool;
+		return copy;
+	}
+
+	/**
+	 * Create a copy of this loader that copies inputs with multiple threads of {@code staging}, including inputs that
+	 * are stitched from the cells of a {@link CachedCellImg}. Staging is still synchronous for each block: to stage
+	 * upcoming blocks while Python executes the current ones, use a {@link GridPrefetcher} or a
+	 * {@link GridMaterializer}, or request more blocks concurrently than there are Python workers.
+	 */
+	public PythonCacheLoader<T, A> withStaging(final StagingExecutor staging) {
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.staging = staging;
+		return copy;
+	}
+
+	/**
+	 * Create a copy of this loader that shares copied inputs through {@code cache} with other loaders that use the
+	 * same cache, e.g. loaders of several outputs that are computed from the same source with the same halo. Shared
+	 * inputs are not drawn from the buffer pool and are read-only in Python.
+	 */
+	public PythonCacheLoader<T, A> withStagingCache(final StagingCache cache) {
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.stagingCache = cache;
+		return copy;
+	}
+
+	/**
+	 * Create a copy of this loader whose Python code also fills the array {@code block.outputs[name]} of
+	 * {@code type}, e.g. probabilities in addition to labels in {@code block.data}. Use
+	 * {@link #createLinkedCachedCellImgs(long)} to access all outputs without running the code once per output. All
+	 * other ways to load cells, e.g. {@link #createCachedCellImg(long)} or a {@link GridMaterializer}, only produce
+	 * {@code block.data} and are rejected for loaders with additional outputs.
+	 */
+	public PythonCacheLoader<T, A> withOutput(final String name, final NativeType<?> type) {
+		for (final Output output : outputs)
+			if (output.name.equals(name))
+				throw new IllegalArgumentException("Duplicate output " + name);
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.outputs = new ArrayList<>(outputs);
+		copy.outputs.add(new Output(name, type));
+		return copy;
+	}
+
+	List<Output> getOutputs() {
+		return outputs;
+	}
+
+	/**
+	 * Reject loading only {@code block.data}, which would compute the additional outputs and drop them.
+	 */
+	void checkNoOutputs() {
+		if (!outputs.isEmpty())
+			throw new IllegalStateException("This loader has additional outputs " + outputs.stream().map(Output::getName).collect(Collectors.toList()) + ", use createLinkedCachedCellImgs to load them.");
+	}
+
+	/**
+	 * Create an image for {@code block.data} and for each output of {@link #withOutput(String, NativeType)}, each
+	 * with a cache of at most {@code maximumSize} cells. The Python code runs once for all outputs of a cell: loading
+	 * a cell of one image also fills the caches of the other images.
+	 */
+	public LinkedCachedCellImgs<T, A> createLinkedCachedCellImgs(final long maximumSize) {
+		if (diskCache != null)
+			throw new IllegalStateException("The disk cache does not store additional outputs.");
+		return new LinkedCachedCellImgs<>(this, () -> new GuardedStrongRefLoaderCache<Long, Cell<?>>(maximumSize));
+	}
+
+	/**
+	 * Create a copy of this loader that stages each input only when the Python code first accesses it in
+	 * {@code block.inputs}, e.g. to skip expensive inputs for blocks that do not need them. Inputs are then staged on
+	 * the Python worker instead of the calling thread, i.e. with this option staging does not overlap with Python
+	 * execution. Batches (see {@link #withBatching(int, long, TimeUnit)}) and Python processes (see
+	 * {@link PythonCacheLoaderQueue#withProcesses(int, String)}) still stage all inputs. Cells of a loader on the
+	 * same worker queue cannot be computed while a lazy input is staged: an input that is computed by such a loader
+	 * must either be cached already or not be lazy, otherwise the block fails.
+	 */
+	public PythonCacheLoader<T, A> withLazyInputs() {
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.lazyInputs = true;
+		return copy;
+	}
+
+	CellGrid getGrid() {
+		return grid;
+	}
+
+	T getType() {
+		return t;
+	}
+
+	A getAccessType() {
+		return a;
+	}
+
+	int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Create a copy of this loader that submits blocks with {@code priority} to the worker queue, see
+	 * {@link PythonWorkerQueue#submit(PythonTask, int, boolean)}. Use e.g. a higher priority value for background
+	 * prefetching than for interactive requests.
+	 */
+	public PythonCacheLoader<T, A> withPriority(final int priority, final boolean enqueueToFront) {
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.priority = priority;
+		copy.enqueueToFront = enqueueToFront;
+		return copy;
+	}
+
+	/**
+	 * Create a copy of this loader whose blocks all prefer the same worker, e.g. to reuse state that the code caches in
+	 * the interpreter. Idle workers still steal blocks, i.e. other workers execute blocks of this loader only if they
+	 * have nothing else to do. The preferred worker is picked by a hash of the code, i.e. loaders with different code
+	 * usually but not necessarily prefer different workers.
+	 */
+	public PythonCacheLoader<T, A> withLoaderAffinity() {
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.affinityRegion = new int[0];
+		return copy;
+	}
+
+	/**
+	 * Create a copy of this loader whose blocks prefer the same worker within regions of {@code regionSize} cells of
+	 * the grid, e.g. to reuse state that the code caches in the interpreter for neighboring blocks. Idle workers still
+	 * steal blocks that prefer other workers.
+	 */
+	public PythonCacheLoader<T, A> withRegionAffinity(final int... regionSize) {
+		if (regionSize.length != grid.numDimensions())
+			throw new IllegalArgumentException("Expected region size with " + grid.numDimensions() + " dimensions but got " + Arrays.toString(regionSize));
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.affinityRegion = regionSize.clone();
+		return copy;
+	}
+
+	/**
+	 * @return affinity key of the block at {@code cellPosition}, or {@code null} if blocks have no preferred worker
+	 */
+	private Object affinity(final long[] cellPosition) {
+		if (affinityRegion == null)
+			return null;
+		if (affinityRegion.length == 0)
+			return Arrays.asList(codeKey);
+		final long[] gridDimensions = grid.getGridDimensions();
+		long region = 0;
+		for (int d = cellPosition.length - 1; d >= 0; --d) {
+			final long numRegions = (gridDimensions[d] + affinityRegion[d] - 1) / affinityRegion[d];
+			region = region * numRegions + cellPosition[d] / affinityRegion[d];
+		}
+		return Arrays.asList(codeKey, region);
+	}
+
+	/**
+	 * Create a copy of this loader that persists computed cells in a dataset within {@code directory} and loads them
+	 * from there instead of computing them again, e.g. after a restart. See {@link #withDiskCache(Path, String)}.
+	 */
+	public PythonCacheLoader<T, A> withDiskCache(final Path directory) throws IOException {
+		return withDiskCache(directory, "");
+	}
+
+	/**
+	 * Create a copy of this loader that persists computed cells in a dataset within {@code directory} and loads them
+	 * from there instead of computing them again, e.g. after a restart. The dataset is named after a hash of the
+	 * code, the init block of the worker queue, grid, type, halo, and {@code inputsVersion}. Inputs are not hashed:
+	 * change {@code inputsVersion} whenever the inputs change. Stored cells are memory-mapped and not drawn from the
+	 * buffer pool. The dataset is an uncompressed N5 dataset that can be opened with N5 readers. Call
+	 * {@link #closeDiskCache()} to wait for the cells that are written in the background.
+	 */
+	public PythonCacheLoader<T, A> withDiskCache(final Path directory, final String inputsVersion) throws IOException {
+		final int[] cellDimensions = new int[grid.numDimensions()];
+		grid.cellDimensions(cellDimensions);
+		final String hash = DiskCellStore.hash(
+				code,
+				workerQueue.getInit(),
+				Arrays.toString(grid.getImgDimensions()),
+				Arrays.toString(cellDimensions),
+				t.getClass().getName(),
+				Arrays.toString(halo.getLowerCopy()),
+				Arrays.toString(halo.getUpperCopy()),
+				inputsVersion);
+		final PythonCacheLoader<T, A> copy = new PythonCacheLoader<>(this);
+		copy.diskCache = new DiskCellStore(directory.resolve(hash), grid, t);
+		return copy;
+	}
+
+	/**
+	 * Wait until all cells that were computed so far are written to the disk cache (see
+	 * {@link #withDiskCache(Path, String)}) and stop its writer thread. The disk cache is shared with all copies of
+	 * this loader. Cells are still read from it afterwards but computed cells are not stored anymore. Does nothing if
+	 * there is no disk cache.
+	 *
+	 * @throws IOException if writing a cell failed
+	 */
+	public void closeDiskCache() throws IOException {
+		if (diskCache != null)
+			diskCache.close();
+	}
+
 	@Override
-	@SuppressWarnings({"unchecked", "rawtypes"})
 	public Cell<A> get(final Long key) {
+		checkNoOutputs();
+		final Cell<A> stored = loadFromDisk(key);
+		if (stored != null)
+			return stored;
+		checkNotOnWorker(key);
+		final StagedBlock block = stage(key);
+		boolean isValid = true;
+		try {
+			block.submit(priority, enqueueToFront).get();
+		} catch (final Exception e) {
+			isValid = false;
+			e.printStackTrace();
+		}
+		return storeOnDisk(key, block, block.toCell(isValid));
+	}
+
+	/**
+	 * Compute the cells of {@code block.data} and of all additional outputs for {@code key}, in the order of
+	 * {@link #getOutputs()}. The disk cache is not used.
+	 */
+	Cell<?>[] getWithOutputs(final Long key) {
+		checkNotOnWorker(key);
+		final StagedBlock block = stage(key);
+		boolean isValid = true;
+		try {
+			block.submit(priority, enqueueToFront).get();
+		} catch (final Exception e) {
+			isValid = false;
+			e.printStackTrace();
+		}
+		final Cell<?>[] cells = new Cell<?>[outputs.size() + 1];
+		cells[0] = block.toCell(isValid);
+		for (int i = 0; i < outputs.size(); ++i)
+			cells[i + 1] = block.toOutputCell(i, isValid);
+		return cells;
+	}
+
+	/**
+	 * Stage the inputs for {@code key} on the calling thread and submit the block without waiting for Python. The
+	 * returned future completes with the cell, which is invalid if the Python code failed. Cancelling the future
+	 * drops the block from the worker queue if Python did not start it yet.
+	 */
+	CompletableFuture<Cell<A>> getAsync(final Long key) {
+		return getAsync(key, priority, enqueueToFront);
+	}
+
+	CompletableFuture<Cell<A>> getAsync(final Long key, final int priority, final boolean enqueueToFront) {
+		checkNoOutputs();
+		final Cell<A> stored = loadFromDisk(key);
+		if (stored != null)
+			return CompletableFuture.completedFuture(stored);
+		final StagedBlock block = stage(key);
+		final PythonFuture<Void> result = block.submit(priority, enqueueToFront);
+		final CompletableFuture<Cell<A>> cell = new CompletableFuture<Cell<A>>() {
+			@Override
+			public boolean cancel(final boolean mayInterruptIfRunning) {
+				return result.cancel() && super.cancel(mayInterruptIfRunning);
+			}
+		};
+		result.whenDone(() -> {
+			boolean isValid = true;
+			try {
+				result.get();
+			} catch (final CancellationException e) {
+				isValid = false;
+			} catch (final Exception e) {
+				isValid = false;
+				e.printStackTrace();
+			}
+			// releases the inputs also if the block was cancelled
+			final Cell<A> c = block.toCell(isValid);
+			if (!result.isCancelled())
+				cell.complete(storeOnDisk(key, block, c));
+		});
+		return cell;
+	}
+
+	/**
+	 * Fail instead of waiting for a cell on a worker of the same queue, e.g. when a lazy input is a cell of a loader
+	 * on the same queue: the worker could end up waiting for itself.
+	 */
+	private void checkNotOnWorker(final Long key) {
+		if (workerQueue.isWorkerThread())
+			throw new IllegalStateException("Cell " + key + " cannot be computed on a worker of its own queue, e.g. to stage a lazy input.");
+	}
+
+	/**
+	 * @return the stored cell for {@code key} or {@code null} if there is no disk cache or it does not hold the cell
+	 */
+	private Cell<A> loadFromDisk(final Long key) {
+		if (diskCache == null)
+			return null;
+		final long[] min = new long[grid.numDimensions()];
+		final int[] dim = new int[min.length];
+		grid.getCellDimensions(key, min, dim);
+		final ByteBuffer data = diskCache.read(key, getNumBytes(t, new FinalInterval(Util.int2long(dim))));
+		return data == null ? null : new Cell<>(dim, min, a.newInstance(data, true));
+	}
+
+	private Cell<A> storeOnDisk(final Long key, final StagedBlock block, final Cell<A> cell) {
+		// invalid cells are computed again on the next request
+		if (diskCache != null && cell.getData().isValid())
+			diskCache.writeAsync(key, block.buffer, getNumBytes(t, new FinalInterval(Util.int2long(block.dim))), cell);
+		return cell;
+	}
+
+	/**
+	 * Create an invalid cell for {@code key} that is backed by a shared buffer of zeros. The cell must not be written to.
+	 */
+	Cell<A> createInvalidCell(final Long key) {
+		final long[] min = new long[grid.numDimensions()];
+		final int[] dim = new int[min.length];
+		grid.getCellDimensions(key, min, dim);
+		final ByteBuffer zeros = emptyCellBuffer();
+		final ByteBuffer buffer = (ByteBuffer) zeros.duplicate().limit(getNumBytes(t, new FinalInterval(Util.int2long(dim))));
+		return new Cell<>(dim, min, a.newInstance(buffer.slice(), false));
+	}
+
+	private ByteBuffer emptyCellBuffer() {
+		ByteBuffer zeros = emptyCellBuffer;
+		if (zeros == null) {
+			final int[] cellDimensions = new int[grid.numDimensions()];
+			grid.cellDimensions(cellDimensions);
+			zeros = ByteBuffer.allocateDirect(getNumBytes(t, new FinalInterval(Util.int2long(cellDimensions))));
+			emptyCellBuffer = zeros;
+		}
+		return zeros;
+	}
+
+	private class StagedBlock {
+		private final long key;
+		private final int[] dim;
+		private final long[] min;
+		private final ByteBuffer buffer;
+		private final ByteBuffer[] outputBuffers;
+		private final PythonCacheLoaderBlockTask task;
+		private final long stagingNanos;
+		// set on the submitting thread and read by the thread that completes the block
+		private volatile long submitted;
+
+		private StagedBlock(
+				final long key,
+				final int[] dim,
+				final long[] min,
+				final ByteBuffer buffer,
+				final ByteBuffer[] outputBuffers,
+				final PythonCacheLoaderBlockTask task,
+				final long stagingNanos) {
+			this.key = key;
+			this.dim = dim;
+			this.min = min;
+			this.buffer = buffer;
+			this.outputBuffers = outputBuffers;
+			this.task = task;
+			this.stagingNanos = stagingNanos;
+		}
+
+		private PythonFuture<Void> submit(final int priority, final boolean enqueueToFront) {
+			submitted = System.nanoTime();
+			return workerQueue.submit(task, priority, enqueueToFront);
+		}
+
+		private Cell<A> toCell(final boolean isValid) {
+			workerQueue.getMetrics().cellComputed(key, stagingNanos, System.nanoTime() - submitted, isValid);
+			for (final DirectNDArray<?> input : task.getStagedInputs()) {
+				if (input instanceof StagingCache.SharedNDArray)
+					((StagingCache.SharedNDArray) input).release();
+				else if (bufferPool != null)
+					bufferPool.release(input.getData());
+			}
+			final A access = newAccess(a, buffer, isValid);
+			return new Cell<>(dim, min, access);
+		}
+
+		/**
+		 * @return cell of additional output {@code i}, see {@link #withOutput(String, NativeType)}
+		 */
+		private Cell<?> toOutputCell(final int i, final boolean isValid) {
+			final Object access = newAccess(outputs.get(i).a, outputBuffers[i], isValid);
+			return new Cell<>(dim, min, access);
+		}
+	}
+
+	/**
+	 * Create an access of type {@code a} for the output {@code buffer} of a block. A pooled buffer is returned to the
+	 * pool once the storage of the access is unreachable: the access, the arrays that pass the cell to Python without
+	 * a copy and the {@code ndarray}s created from them all reference the storage, not only the access.
+	 */
+	@SuppressWarnings("unchecked")
+	private <B> B newAccess(final BufferAccess<?> a, final ByteBuffer buffer, final boolean isValid) {
+		if (bufferPool == null)
+			return (B) a.newInstance(buffer, isValid);
+		// the pool holds on to the buffer itself, so the storage must be a different object
+		final BufferAccess<?> access = a.newInstance(buffer.duplicate().order(buffer.order()), isValid);
+		bufferPool.recycleWhenUnreachable(access.getCurrentStorageArray(), buffer);
+		return (B) access;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private StagedBlock stage(final Long key) {
 		final long[] min = new long[grid.numDimensions()];
 		final long[] max = new long[min.length];
 		final int[] dim = new int[min.length];
@@ -270,30 +1191,58 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 		final Interval interval = new FinalInterval(min, max);
 		final Interval extendedInterval = halo.extendInterval(interval);
 
-		final ByteBuffer buffer = appropriateDirectBuffer(t, interval);
-
-		// This redundant cast is necessary to compile with OpenJDK 8. Why?
-		final DirectNDArray<?>[] inputs = this.inputGenerators
-				.stream()
-				.map(g -> g.createInputFor(extendedInterval))
-				.toArray(DirectNDArray[]::new);
-
+		final PythonMetrics metrics = workerQueue.getMetrics();
+		final long start = System.nanoTime();
+		final ByteBuffer buffer = appropriateDirectBuffer(t, interval, bufferPool, true);
+		metrics.outputAllocated(buffer.capacity());
+		final ByteBuffer[] outputBuffers = new ByteBuffer[outputs.size()];
+		final String[] outputNames = new String[outputs.size()];
+		final Buffer[] typedOutputBuffers = new Buffer[outputs.size()];
+		for (int i = 0; i < outputBuffers.length; ++i) {
+			final Output output = outputs.get(i);
+			outputBuffers[i] = appropriateDirectBuffer(output.t, interval, bufferPool, true);
+			metrics.outputAllocated(outputBuffers[i].capacity());
+			outputNames[i] = output.name;
+			typedOutputBuffers[i] = asTypedBuffer(outputBuffers[i], output.t);
+		}
 
-		boolean isValid = true;
-		try {
-			final PythonCacheLoaderBlockTask task =
-					new PythonCacheLoaderBlockTask(asTypedBuffer(buffer, t), inputs, key, min, max, halo, code);
-			workerQueue.submit(task).get();
-		} catch (final Exception e) {
-			isValid = false;
-			e.printStackTrace();
+		final long[] cellPosition = new long[min.length];
+		grid.getCellGridPositionFlat(key, cellPosition);
+		final PythonCacheLoaderBlockTask task;
+		if (lazyInputs) {
+			final PythonCacheLoaderBlockTask.LazyInput[] inputs = this.inputGenerators
+					.stream()
+					.map(g -> new PythonCacheLoaderBlockTask.LazyInput(() -> createInput(g, extendedInterval, metrics)))
+					.toArray(PythonCacheLoaderBlockTask.LazyInput[]::new);
+			task = new PythonCacheLoaderBlockTask(
+					asTypedBuffer(buffer, t), inputs, key, min, max, halo, code, codeKey, batch, affinity(cellPosition), outputNames, typedOutputBuffers);
+		} else {
+			// This redundant cast is necessary to compile with OpenJDK 8. Why?
+			final DirectNDArray<?>[] inputs = this.inputGenerators
+					.stream()
+					.map(g -> createInput(g, extendedInterval, metrics))
+					.toArray(DirectNDArray[]::new);
+			task = new PythonCacheLoaderBlockTask(
+					asTypedBuffer(buffer, t), inputs, key, min, max, halo, code, codeKey, batch, affinity(cellPosition), outputNames, typedOutputBuffers);
 		}
+		return new StagedBlock(key, dim, min, buffer, outputBuffers, task, System.nanoTime() - start);
+	}
 
-		final A access = a.newInstance(buffer, isValid);
-		return new Cell<>(dim, min, access);
+	private DirectNDArray<?> createInput(final InputGenerator generator, final Interval interval, final PythonMetrics metrics) {
+		final long start = System.nanoTime();
+		final Object stagingKey = stagingCache == null ? null : generator.stagingKey(interval);
+		final DirectNDArray<?> input = stagingKey == null
+				? generator.createInputFor(interval, bufferPool, staging)
+				: stagingCache.acquire(stagingKey, interval, () -> generator.createInputFor(interval, null, staging));
+		final boolean isZeroCopy = input instanceof InputGenerator.ForCachedCellImg.CellNDArray
+				|| input instanceof StridedNDArray && !((StridedNDArray<?>) input).isCopy()
+				|| input instanceof StagingCache.SharedNDArray && !((StagingCache.SharedNDArray) input).wasStaged();
+		metrics.inputStaged(System.nanoTime() - start, isZeroCopy, isZeroCopy ? 0 : Buffers.numBytes(input.getData()));
+		return input;
 	}
 
 	public CachedCellImg<T, A> createCachedCellImg(final LoaderCache<Long, Cell<A>> loaderCache) {
+		checkNoOutputs();
 		return new CachedCellImg<>(grid, t, loaderCache.withLoader(this), a);
 	}
 
@@ -301,10 +1250,103 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 		return createCachedCellImg(new GuardedStrongRefLoaderCache<>(maximumSize));
 	}
 
-	private static ByteBuffer appropriateDirectBuffer(final NativeType<?> t, final Interval interval) {
+	/**
+	 * Create a {@link CachedCellImg} with a {@link BudgetedLoaderCache} that evicts cells to keep the total size of
+	 * all cells within {@code budget}, see {@link #createBudgetedLoaderCache(NativeMemoryBudget, boolean)}.
+	 */
+	public CachedCellImg<T, A> createCachedCellImg(final NativeMemoryBudget budget) {
+		return createCachedCellImg(createBudgetedLoaderCache(budget, false));
+	}
+
+	/**
+	 * Create a cache for cells of this loader that is bounded by the size of the cell buffers in bytes. The budget
+	 * can be shared with the caches of other loaders. Evicted cells are not referenced by the cache anymore, but their
+	 * native memory is only freed once they are garbage collected, or returned to the buffer pool (see
+	 * {@link #withBufferPool(DirectBufferPool)}) once they are unreachable.
+	 *
+	 * @param releaseBuffersOnEviction return the buffers of evicted cells to the buffer pool right away, i.e. do not
+	 *                                 wait for the garbage collector. This keeps the native memory of the cells within
+	 *                                 the budget, but is only safe if evicted cells are not accessed anymore, e.g. by a
+	 *                                 {@code RandomAccess} that still holds on to an evicted cell.
+	 */
+	public LoaderCache<Long, Cell<A>> createBudgetedLoaderCache(
+			final NativeMemoryBudget budget,
+			final boolean releaseBuffersOnEviction) {
+		return new BudgetedLoaderCache<Long, Cell<A>>(
+				budget,
+				this::getNumBytes,
+				releaseBuffersOnEviction ? this::recycleNow : cell -> {});
+	}
+
+	/**
+	 * Return the output buffer of {@code cell} to the buffer pool right away. {@code cell} must not be used afterwards.
+	 * Buffers of cells that may still be written to the disk cache are left to the garbage collector.
+	 */
+	void recycleNow(final Cell<A> cell) {
+		if (bufferPool != null && diskCache == null)
+			bufferPool.recycleNow(cell.getData().getCurrentStorageArray());
+	}
+
+	private long getNumBytes(final Cell<A> cell) {
+		final long[] dimensions = new long[grid.numDimensions()];
+		cell.dimensions(dimensions);
+		return getNumBytes(t, new FinalInterval(dimensions));
+	}
+
+	/**
+	 * Create a {@link CachedCellImg} that prefetches the neighbors of each requested cell within {@code radius} (in
+	 * cells), see {@link GridPrefetcher}. Close the image to stop prefetching.
+	 */
+	public PrefetchingCachedCellImg<T, A> createPrefetchingCachedCellImg(final long maximumSize, final int... radius) {
+		checkNoOutputs();
+		final LoaderCache<Long, Cell<A>> loaderCache = new GuardedStrongRefLoaderCache<>(maximumSize);
+		final GridPrefetcher<A> prefetcher = new GridPrefetcher<>(this, loaderCache, radius);
+		return new PrefetchingCachedCellImg<>(grid, t, loaderCache.withLoader(prefetcher), a, prefetcher);
+	}
+
+	/**
+	 * Create a volatile image of {@code volatileType} (e.g. {@code VolatileLongType} for {@code LongType}). Missing
+	 * cells are requested through {@code queue} with the priority of the {@link CacheHints} of each access and are
+	 * returned as invalid cells immediately (for {@link LoadingStrategy#VOLATILE}). The threads that serve
+	 * {@code queue} only stage the inputs and are not blocked while Python computes the cell. Completed cells are
+	 * stored in {@code loaderCache}.
+	 *
+	 * @param queue e.g. a {@code SharedQueue} of BigDataViewer, or any {@link BlockingFetchQueues} that is served by
+	 *                 {@link FetcherThreads}. The caller owns the threads that serve the queue and shuts them down.
+	 */
+	public <V extends NativeType<V>> VolatileCachedCellImg<V, A> createVolatileCachedCellImg(
+			final V volatileType,
+			final LoaderCache<Long, Cell<A>> loaderCache,
+			final BlockingFetchQueues<Callable<?>> queue,
+			final CacheHints hints) {
+		checkNoOutputs();
+		return new VolatileCachedCellImg<>(grid, volatileType, hints, new VolatilePythonCells<>(this, loaderCache, queue));
+	}
+
+	public <V extends NativeType<V>> VolatileCachedCellImg<V, A> createVolatileCachedCellImg(
+			final V volatileType,
+			final long maximumSize,
+			final BlockingFetchQueues<Callable<?>> queue) {
+		return createVolatileCachedCellImg(
+				volatileType,
+				new GuardedStrongRefLoaderCache<>(maximumSize),
+				queue,
+				new CacheHints(LoadingStrategy.VOLATILE, 0, false));
+	}
+
+	private static ByteBuffer appropriateDirectBuffer(
+			final NativeType<?> t,
+			final Interval interval,
+			final DirectBufferPool pool,
+			final boolean clear) {
+		final int numBytes = getNumBytes(t, interval);
+		return pool == null ? ByteBuffer.allocateDirect(numBytes) : pool.acquire(numBytes, clear);
+	}
+
+	private static int getNumBytes(final NativeType<?> t, final Interval interval) {
 		final double fractionalBytesPerEntity = getFractionalBytesPerEntity(t);
 		final long numElements = Intervals.numElements(interval);
-		return ByteBuffer.allocateDirect((int) Math.ceil(numElements * fractionalBytesPerEntity));
+		return (int) Math.ceil(numElements * fractionalBytesPerEntity);
 	}
 
 	private static double getFractionalBytesPerEntity(final NativeType<?> t) {
@@ -425,17 +1467,70 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 	}
 
 	public static Buffer copyToBuffer(final RandomAccessible<? extends NativeType<?>> source, final Interval interval) {
-		return copyToBuffer(Views.interval(source, interval));
+		return copyToBuffer(source, interval, null);
+	}
+
+	/**
+	 * Copy {@code interval} of {@code source} into a direct buffer drawn from {@code pool} (if not {@code null}). The
+	 * returned buffer is registered with {@code pool} and can be returned with {@link DirectBufferPool#release(Buffer)}.
+	 */
+	public static Buffer copyToBuffer(
+			final RandomAccessible<? extends NativeType<?>> source,
+			final Interval interval,
+			final DirectBufferPool pool) {
+		return copyToBuffer(source, interval, pool, null);
+	}
+
+	/**
+	 * Copy {@code interval} of {@code source} like {@link #copyToBuffer(RandomAccessible, Interval, DirectBufferPool)}
+	 * with multiple threads of {@code staging} (if not {@code null}). The copy is split into chunks along the last
+	 * dimension.
+	 */
+	public static Buffer copyToBuffer(
+			final RandomAccessible<? extends NativeType<?>> source,
+			final Interval interval,
+			final DirectBufferPool pool,
+			final StagingExecutor staging) {
+		return copyToBuffer(Views.interval(source, interval), pool, staging);
 	}
 
 	@SuppressWarnings({"unchecked", "rawtypes"})
-	private static Buffer copyToBuffer(final RandomAccessibleInterval<? extends NativeType<?>> source) {
-		final ByteBuffer buffer = appropriateDirectBuffer(Util.getTypeFromInterval(source).createVariable(), source);
-		return copyToBuffer((RandomAccessibleInterval) source, buffer);
+	private static Buffer copyToBuffer(
+			final RandomAccessibleInterval<? extends NativeType<?>> source,
+			final DirectBufferPool pool,
+			final StagingExecutor staging) {
+		final NativeType<?> t = Util.getTypeFromInterval(source).createVariable();
+		final ByteBuffer buffer = appropriateDirectBuffer(t, source, pool, false);
+		final int lastDimension = source.numDimensions() - 1;
+		final double entitiesPerSlice = Intervals.numElements(source) / source.dimension(lastDimension) * t.getEntitiesPerPixel().getRatio();
+		final int numChunks = staging == null || entitiesPerSlice != Math.rint(entitiesPerSlice)
+				? 1
+				: (int) Math.min(staging.getParallelism(), source.dimension(lastDimension));
+		if (numChunks == 1)
+			copyToBuffer((RandomAccessibleInterval) source, buffer);
+		else {
+			final long bytesPerSlice = (long) entitiesPerSlice * getByteCount(t);
+			final long size = source.dimension(lastDimension);
+			final List<Runnable> chunks = new ArrayList<>();
+			for (int i = 0; i < numChunks; ++i) {
+				final long from = size * i / numChunks;
+				final long to = size * (i + 1) / numChunks;
+				final long[] min = Intervals.minAsLongArray(source);
+				final long[] max = Intervals.maxAsLongArray(source);
+				min[lastDimension] = source.min(lastDimension) + from;
+				max[lastDimension] = source.min(lastDimension) + to - 1;
+				final RandomAccessibleInterval<?> chunk = Views.interval(source, min, max);
+				final ByteBuffer chunkBuffer = (ByteBuffer) buffer.duplicate().limit((int) (to * bytesPerSlice)).position((int) (from * bytesPerSlice));
+				chunks.add(() -> copyToBuffer((RandomAccessibleInterval) chunk, chunkBuffer.slice().order(buffer.order())));
+			}
+			staging.invokeAll(chunks);
+		}
+		final Buffer typedBuffer = asTypedBuffer(buffer, t);
+		return pool == null ? typedBuffer : pool.track(typedBuffer, buffer);
 	}
 
 	@SuppressWarnings({"unchecked", "rawtypes"})
-	private static <T extends NativeType<T>, A extends BufferAccess<A>> Buffer copyToBuffer(
+	private static <T extends NativeType<T>, A extends BufferAccess<A>> void copyToBuffer(
 			final RandomAccessibleInterval<T> source,
 			final ByteBuffer buffer) {
 		final T t = Util.getTypeFromInterval(source).createVariable();
@@ -443,7 +1538,13 @@ public class PythonCacheLoader<T extends NativeType<T>, A extends BufferAccess<A
 		final ArrayImg<T, A> target = new ArrayImg<>(a, Intervals.dimensionsAsLongArray(source), t.getEntitiesPerPixel());
 		target.setLinkedType((T) t.getNativeTypeFactory().createLinkedType((NativeImg) target));
 		LoopBuilder.setImages(target, source).forEachPixel(T::set);
-		return asTypedBuffer(buffer, t);
+	}
+
+	private static long[] reversedArray(final long[] array) {
+		final long[] reversedArray = new long[array.length];
+		for (int i = 0, k = array.length - 1; i < array.length; ++i, --k)
+			reversedArray[i] = array[k];
+		return reversedArray;
 	}
 
 	private static int[] reversedArray(final int[] array) {
@@ -0,0 +1,51 @@
+package net.imglib2.cache.python;
+
+import jep.Interpreter;
+import jep.JepException;
+
+import java.util.List;
+
+/**
+ * Executes the code of a {@link PythonCacheLoader} for multiple {@link PythonCacheLoaderBlockTask}s at once. The code
+ * can access all blocks through the {@code batch} variable of type {@code Batch}.
+ */
+class PythonCacheLoaderBatch implements PythonBatch {
+
+	private final String code;
+	private final long codeKey;
+	private final int maxSize;
+	private final long maxLingerNanos;
+
+	PythonCacheLoaderBatch(final String code, final long codeKey, final int maxSize, final long maxLingerNanos) {
+		this.code = code;
+		this.codeKey = codeKey;
+		this.maxSize = maxSize;
+		this.maxLingerNanos = maxLingerNanos;
+	}
+
+	String getCode() {
+		return code;
+	}
+
+	long getCodeKey() {
+		return codeKey;
+	}
+
+	@Override
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@Override
+	public long getMaxLingerNanos() {
+		return maxLingerNanos;
+	}
+
+	@Override
+	public void execute(final Interpreter python, final List<? extends PythonTask<?>> tasks) throws JepException {
+		final Object[][] blocks = new Object[tasks.size()][];
+		for (int i = 0; i < blocks.length; ++i)
+			blocks[i] = ((PythonCacheLoaderBlockTask) tasks.get(i)).blockArguments();
+		python.invoke("_run_batch", codeKey, code, blocks);
+	}
+}
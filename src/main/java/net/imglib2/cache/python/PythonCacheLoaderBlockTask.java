@@ -1,24 +1,127 @@
 package net.imglib2.cache.python;
 
 import jep.DirectNDArray;
+import jep.Interpreter;
 import jep.JepException;
-import jep.SharedInterpreter;
 
 import java.nio.Buffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 public class PythonCacheLoaderBlockTask implements PythonTask<Void> {
+
+	/**
+	 * Input that is staged when Python first accesses it in {@code block.inputs}, see {@code _LazyInputs}. Called
+	 * from Python through Jep, i.e. the methods must be public.
+	 */
+	public static final class LazyInput {
+		private final Supplier<DirectNDArray<?>> stage;
+		private volatile DirectNDArray<?> array = null;
+
+		LazyInput(final Supplier<DirectNDArray<?>> stage) {
+			this.stage = stage;
+		}
+
+		/**
+		 * Stage the input, if it was not staged yet.
+		 */
+		public synchronized DirectNDArray<?> get() {
+			if (array == null)
+				array = stage.get();
+			return array;
+		}
+
+		/**
+		 * @return shape and strides if the staged input is read-only, {@code null} otherwise (see
+		 * {@link StridedNDArray#viewArguments(DirectNDArray)})
+		 */
+		public Object[] view() {
+			return StridedNDArray.viewArguments(get());
+		}
+
+		/**
+		 * @return the staged input or {@code null} if Python did not access it
+		 */
+		DirectNDArray<?> getIfStaged() {
+			return array;
+		}
+	}
+
 	private final Buffer buffer;
 	private final DirectNDArray<?>[] inputs;
+	private final LazyInput[] lazyInputs;
 	private final long index;
 	private final long[] min;
 	private final long[] max;
 	private final int[] dims;
 	private final Halo halo;
 	private final String code;
+	private final Long codeKey;
+	private final PythonBatch batch;
+	private final Object affinity;
+	private final String[] outputNames;
+	private final Buffer[] outputs;
+	private final boolean defineHelpers;
 
+	/**
+	 * Create a task that can be submitted to any {@link PythonWorkerQueue}: the block helpers of
+	 * {@link PythonCacheLoaderQueue} are defined in the interpreter before the first block runs, if necessary.
+	 */
 	public PythonCacheLoaderBlockTask(Buffer buffer, DirectNDArray<?>[] inputs, long index, long[] min, long[] max, Halo halo, String code) {
+		this(buffer, inputs, null, index, min, max, halo, code, null, null, null, new String[0], new Buffer[0], true);
+	}
+
+	PythonCacheLoaderBlockTask(
+			Buffer buffer,
+			DirectNDArray<?>[] inputs,
+			long index,
+			long[] min,
+			long[] max,
+			Halo halo,
+			String code,
+			Long codeKey,
+			PythonBatch batch,
+			Object affinity,
+			String[] outputNames,
+			Buffer[] outputs) {
+		this(buffer, inputs, null, index, min, max, halo, code, codeKey, batch, affinity, outputNames, outputs, false);
+	}
+
+	PythonCacheLoaderBlockTask(
+			Buffer buffer,
+			LazyInput[] inputs,
+			long index,
+			long[] min,
+			long[] max,
+			Halo halo,
+			String code,
+			Long codeKey,
+			PythonBatch batch,
+			Object affinity,
+			String[] outputNames,
+			Buffer[] outputs) {
+		this(buffer, null, inputs, index, min, max, halo, code, codeKey, batch, affinity, outputNames, outputs, false);
+	}
+
+	private PythonCacheLoaderBlockTask(
+			Buffer buffer,
+			DirectNDArray<?>[] inputs,
+			LazyInput[] lazyInputs,
+			long index,
+			long[] min,
+			long[] max,
+			Halo halo,
+			String code,
+			Long codeKey,
+			PythonBatch batch,
+			Object affinity,
+			String[] outputNames,
+			Buffer[] outputs,
+			boolean defineHelpers) {
 		this.buffer = buffer;
 		this.inputs = inputs;
+		this.lazyInputs = lazyInputs;
 		this.index = index;
 		this.min = min;
 		this.max = max;
@@ -27,6 +130,12 @@ public class PythonCacheLoaderBlockTask implements PythonTask<Void> {
 		for (int d = 0; d < dims.length; ++d)
 			this.dims[d] = (int) (this.max[d] - this.min[d] + 1);
 		this.code = code;
+		this.codeKey = codeKey;
+		this.batch = batch;
+		this.affinity = affinity;
+		this.outputNames = outputNames;
+		this.outputs = outputs;
+		this.defineHelpers = defineHelpers;
 	}
 
 	private static long[] reversedArray(final long[] array) {
@@ -44,23 +153,137 @@ public class PythonCacheLoaderBlockTask implements PythonTask<Void> {
 	}
 
 	@Override
-	public Void execute(SharedInterpreter python) throws JepException {
+	public Void execute(Interpreter python) throws JepException {
+		if (defineHelpers)
+			PythonCacheLoaderQueue.defineBlockHelpers(python);
+		python.invoke("_run_block", prepend(codeKey, code, blockArguments()));
+		return null;
+	}
+
+	/**
+	 * @return arguments for the {@code Block} constructor, in the order expected by {@code _make_block}
+	 */
+	Object[] blockArguments() {
 		final int[] dims = reversedArray(this.dims);
-		final int[] adjustedDims = reversedArray(halo.adjustDimensions(this.dims));
 		if (!buffer.isDirect())
 			throw new RuntimeException("Expected direct buffer but got " + buffer);
-		python.set("_buf", new DirectNDArray<>(buffer, dims));
-		python.set("_inputs", this.inputs);
-		python.set("_index", index);
-		python.set("_min", reversedArray(min));
-		python.set("_max", reversedArray(max));
-		python.set("_dim", dims);
-		python.set("_halo_lower", halo.getLowerCopy());
-		python.set("_halo_upper", halo.getUpperCopy());
-		python.exec("_halo = tuple(slice(l, -u) for l, u in zip(_halo_lower, _halo_upper))[::-1]");
-		python.exec("block = Block(_buf, _inputs, _index, _min, _max, _dim, _halo)");
-		python.exec(code);
-		python.exec("del block, _buf, _inputs, _min, _max, _dim, _halo_lower, _halo_upper");
-		return null;
+		final DirectNDArray<?>[] outputs = new DirectNDArray<?>[this.outputs.length];
+		for (int i = 0; i < outputs.length; ++i)
+			outputs[i] = new DirectNDArray<>(this.outputs[i], dims);
+		return new Object[] {
+				new DirectNDArray<>(buffer, dims),
+				lazyInputs == null ? inputs : lazyInputs,
+				index,
+				reversedArray(min),
+				reversedArray(max),
+				dims,
+				halo.getLowerCopy(),
+				halo.getUpperCopy(),
+				lazyInputs == null ? inputViews() : null,
+				lazyInputs != null,
+				outputNames,
+				outputs
+		};
+	}
+
+	/**
+	 * @return shape and strides of each read-only input, {@code null} for all other inputs
+	 */
+	private Object[] inputViews() {
+		final Object[] views = new Object[inputs.length];
+		for (int i = 0; i < inputs.length; ++i)
+			views[i] = StridedNDArray.viewArguments(inputs[i]);
+		return views;
+	}
+
+	Buffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return names of the additional outputs in {@code block.outputs}
+	 */
+	String[] getOutputNames() {
+		return outputNames;
+	}
+
+	/**
+	 * @return buffers of the additional outputs, in the order of {@link #getOutputNames()}
+	 */
+	Buffer[] getOutputs() {
+		return outputs;
+	}
+
+	/**
+	 * @return all inputs, lazy inputs are staged
+	 */
+	DirectNDArray<?>[] getInputs() {
+		if (lazyInputs == null)
+			return inputs;
+		return Arrays.stream(lazyInputs).map(LazyInput::get).toArray(DirectNDArray<?>[]::new);
+	}
+
+	/**
+	 * @return the inputs that were staged, i.e. all inputs unless they are lazy
+	 */
+	DirectNDArray<?>[] getStagedInputs() {
+		if (lazyInputs == null)
+			return inputs;
+		return Arrays.stream(lazyInputs).map(LazyInput::getIfStaged).filter(Objects::nonNull).toArray(DirectNDArray<?>[]::new);
+	}
+
+	long getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return minimum of the block in numpy (reversed) order
+	 */
+	long[] getNDArrayMin() {
+		return reversedArray(min);
+	}
+
+	/**
+	 * @return maximum of the block in numpy (reversed) order
+	 */
+	long[] getNDArrayMax() {
+		return reversedArray(max);
+	}
+
+	/**
+	 * @return shape of the block in numpy (reversed) order
+	 */
+	int[] getNDArrayShape() {
+		return reversedArray(dims);
+	}
+
+	Halo getHalo() {
+		return halo;
+	}
+
+	String getCode() {
+		return code;
+	}
+
+	Long getCodeKey() {
+		return codeKey;
+	}
+
+	private static Object[] prepend(final Object first, final Object second, final Object[] rest) {
+		final Object[] array = new Object[rest.length + 2];
+		array[0] = first;
+		array[1] = second;
+		System.arraycopy(rest, 0, array, 2, rest.length);
+		return array;
+	}
+
+	@Override
+	public PythonBatch batch() {
+		return batch;
+	}
+
+	@Override
+	public Object affinity() {
+		return affinity;
 	}
 }
@@ -1,24 +1,108 @@
 package net.imglib2.cache.python;
 
+import jep.Interpreter;
 import jep.JepException;
 
+import java.util.concurrent.TimeUnit;
+
 public class PythonCacheLoaderQueue extends PythonWorkerQueue {
 
-	private static final String INIT_BLOCK = String.join(
+	/**
+	 * Maximum number of compiled loader codes that are kept per interpreter.
+	 */
+	static final int MAX_COMPILED_CODE = 64;
+
+	private static final String BLOCK_HELPERS = String.join(
 			"\n",
+			"from collections import OrderedDict",
+			"from collections.abc import Sequence",
 			"from dataclasses import dataclass",
 			"import numpy as np",
 			"@dataclass",
-			"class Block:",
-			"    data: np.ndarray",
+			"class Batch:",
+			"    blocks: list",
 			"    inputs: list",
-			"    index: int",
-			"    min: tuple",
-			"    max: tuple",
-			"    dim: tuple",
-			"    halo: tuple"
+			"def _stack_inputs(blocks):",
+			"    stacked = []",
+			"    for arrays in zip(*(list(b.inputs) for b in blocks)):",
+			"        same_shape = all(a.shape == arrays[0].shape for a in arrays)",
+			"        stacked.append(np.stack(arrays) if same_shape else None)",
+			"    return stacked",
+			// Loader code is compiled once per interpreter and cached by key (if not None), least recently used first.
+			"_compiled_code = OrderedDict()",
+			"_max_compiled_code = " + MAX_COMPILED_CODE,
+			"def _compile(key, code):",
+			"    if key is None:",
+			"        return compile(code, '<block code>', 'exec')",
+			"    compiled = _compiled_code.get(key)",
+			"    if compiled is None:",
+			"        compiled = _compiled_code[key] = compile(code, f'<block code {key}>', 'exec')",
+			"        while len(_compiled_code) > _max_compiled_code:",
+			"            _compiled_code.popitem(last=False)",
+			"    else:",
+			"        _compiled_code.move_to_end(key)",
+			"    return compiled",
+			// Strided inputs arrive as flat arrays with their shape, strides (in elements) and offset.
+			"def _as_view(a, v):",
+			"    if v is None:",
+			"        return a",
+			"    return np.lib.stride_tricks.as_strided(",
+			"        a[int(v[2]):], shape=tuple(v[0]), strides=tuple(int(s) * a.itemsize for s in v[1]), writeable=False)",
+			"def _as_views(inputs, views):",
+			"    if views is None:",
+			"        return inputs",
+			"    return [_as_view(a, v) for a, v in zip(inputs, views)]",
+			// Lazy inputs are staged by Java on first access.
+			"class _LazyInputs(Sequence):",
+			"    def __init__(self, sources):",
+			"        self._sources = sources",
+			"        self._arrays = [None] * len(sources)",
+			"    def __len__(self):",
+			"        return len(self._arrays)",
+			"    def __getitem__(self, i):",
+			"        if isinstance(i, slice):",
+			"            return [self[k] for k in range(len(self))[i]]",
+			"        a = self._arrays[i]",
+			"        if a is None:",
+			"            source = self._sources[range(len(self))[i]]",
+			"            a = self._arrays[i] = _as_view(source.get(), source.view())",
+			"        return a",
+			"def _make_block(data, inputs, index, min, max, dim, halo_lower, halo_upper, views=None, lazy=False,",
+			"                output_names=(), outputs=()):",
+			"    halo = tuple(slice(l, -u if u > 0 else None) for l, u in zip(halo_lower, halo_upper))[::-1]",
+			"    inputs = _LazyInputs(inputs) if lazy else _as_views(inputs, views)",
+			"    outputs = {str(n): a for n, a in zip(output_names, outputs)} or None",
+			"    return Block(data, inputs, index, min, max, dim, halo, outputs)",
+			"def _exec_with(key, code, name, value):",
+			"    g = globals()",
+			"    g[name] = value",
+			"    try:",
+			"        exec(_compile(key, code), g)",
+			"    finally:",
+			"        g.pop(name, None)",
+			"def _run_block(key, code, *args):",
+			"    _exec_with(key, code, 'block', _make_block(*args))",
+			"def _run_batch(key, code, block_args):",
+			"    blocks = [_make_block(*args) for args in block_args]",
+			"    _exec_with(key, code, 'batch', Batch(blocks, _stack_inputs(blocks)))"
 	);
 
+	/**
+	 * Starts with {@link InterpreterRuntime#DEFAULT_INIT}, so that embedded interpreters define {@code Block} only once.
+	 */
+	private static final String INIT_BLOCK = String.join("\n", InterpreterRuntime.DEFAULT_INIT, BLOCK_HELPERS);
+
+	/**
+	 * Define the block helpers in {@code python} if they are not defined yet, e.g. to run a
+	 * {@link PythonCacheLoaderBlockTask} on a plain {@link PythonWorkerQueue}.
+	 */
+	static void defineBlockHelpers(Interpreter python) throws JepException {
+		if (!python.getValue("'Block' in globals()", Boolean.class))
+			python.exec(InterpreterRuntime.DEFAULT_INIT);
+		if (!python.getValue("'_run_block' in globals()", Boolean.class))
+			python.exec(BLOCK_HELPERS);
+	}
+
 	public PythonCacheLoaderQueue() throws InterruptedException, JepException {
 		this(1);
 	}
@@ -28,6 +112,65 @@ public class PythonCacheLoaderQueue extends PythonWorkerQueue {
 	}
 
 	public PythonCacheLoaderQueue(int numWorkers, String init) throws InterruptedException, JepException {
-		super(numWorkers, String.join("\n", INIT_BLOCK, init == null ? "" : init));
+		this(numWorkers, init, PythonInterpreterFactory.shared());
+	}
+
+	public PythonCacheLoaderQueue(
+			int numWorkers,
+			String init,
+			PythonInterpreterFactory interpreterFactory) throws InterruptedException, JepException {
+		this(numWorkers, init, InterpreterRuntime.factory(interpreterFactory));
+	}
+
+	private PythonCacheLoaderQueue(
+			int numWorkers,
+			String init,
+			PythonRuntime.Factory runtimeFactory) throws InterruptedException, JepException {
+		this(numWorkers, numWorkers, -1, init, runtimeFactory);
+	}
+
+	private PythonCacheLoaderQueue(
+			int minWorkers,
+			int maxWorkers,
+			long idleTimeoutNanos,
+			String init,
+			PythonRuntime.Factory runtimeFactory) throws InterruptedException, JepException {
+		super(minWorkers, maxWorkers, idleTimeoutNanos, String.join("\n", INIT_BLOCK, init == null ? "" : init), runtimeFactory);
+	}
+
+	/**
+	 * Create a queue with between {@code minWorkers} and {@code maxWorkers} workers.
+	 *
+	 * @see PythonWorkerQueue#elastic(int, int, long, TimeUnit, String)
+	 */
+	public static PythonCacheLoaderQueue elastic(
+			int minWorkers,
+			int maxWorkers,
+			long idleTimeout,
+			TimeUnit unit,
+			String init) throws InterruptedException, JepException {
+		return new PythonCacheLoaderQueue(minWorkers, maxWorkers, unit.toNanos(idleTimeout), init, InterpreterRuntime.factory(PythonInterpreterFactory.shared()));
+	}
+
+	/**
+	 * Create a queue that executes blocks in {@code numWorkers} separate Python processes instead of embedded
+	 * interpreters, i.e. the workers do not share the GIL. The processes are started with {@code python3} from
+	 * {@code PYTHONHOME} (if set) or the {@code PATH} and exchange block data with the JVM through memory-mapped files
+	 * under {@code /dev/shm} (if available). Only block tasks of a {@link PythonCacheLoader} can be submitted.
+	 */
+	public static PythonCacheLoaderQueue withProcesses(int numWorkers, String init) throws InterruptedException, JepException {
+		return withProcesses(numWorkers, init, PythonProcessRuntime.defaultPythonExecutable());
+	}
+
+	/**
+	 * Create a queue that executes blocks in {@code numWorkers} separate processes of {@code pythonExecutable}.
+	 *
+	 * @see #withProcesses(int, String)
+	 */
+	public static PythonCacheLoaderQueue withProcesses(
+			int numWorkers,
+			String init,
+			String pythonExecutable) throws InterruptedException, JepException {
+		return new PythonCacheLoaderQueue(numWorkers, init, PythonProcessRuntime.factory(pythonExecutable));
 	}
 }
@@ -1,6 +1,13 @@
 package net.imglib2.cache.python;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 public class PythonFuture<T> {
 
@@ -10,14 +17,118 @@ public class PythonFuture<T> {
 
 	private final ResultProvider<T> get;
 	private final CountDownLatch latch;
+	private final Consumer<Runnable> whenDone;
+	private final BooleanSupplier cancel;
 
+	/**
+	 * Create a future that is done once {@code latch} is released. Callbacks (e.g. {@link #whenComplete(BiConsumer)})
+	 * are only supported once the future is done: use the futures of {@link PythonWorkerQueue#submit(PythonTask)},
+	 * which run callbacks when the queue completes the task.
+	 */
 	public PythonFuture(ResultProvider<T> get, CountDownLatch latch) {
+		this(get, latch, null, () -> false);
+	}
+
+	PythonFuture(ResultProvider<T> get, CountDownLatch latch, Consumer<Runnable> whenDone, BooleanSupplier cancel) {
 		this.get = get;
 		this.latch = latch;
+		this.whenDone = whenDone;
+		this.cancel = cancel;
 	}
 
+	/**
+	 * Wait for the task and return its result. Exceptions of the task are rethrown as is. Cancelled tasks throw a
+	 * {@link CancellationException}.
+	 */
 	public T get() throws Exception {
 		latch.await();
 		return get.getResult();
 	}
+
+	/**
+	 * Like {@link #get()} but throw a {@link TimeoutException} if the task is not done within {@code timeout}. The task
+	 * itself is not affected. A task that expired in the queue throws a {@link TaskExpiredException} instead.
+	 */
+	public T get(final long timeout, final TimeUnit unit) throws Exception {
+		if (!latch.await(timeout, unit))
+			throw new TimeoutException("Task not done within " + timeout + " " + unit + ".");
+		return get.getResult();
+	}
+
+	public boolean isDone() {
+		return latch.getCount() == 0;
+	}
+
+	/**
+	 * Cancel the task if it is still queued. Tasks that are already running in Python cannot be cancelled.
+	 *
+	 * @return {@code true} if the task was cancelled and will never be executed
+	 */
+	public boolean cancel() {
+		return cancel.getAsBoolean();
+	}
+
+	public boolean isCancelled() {
+		if (!isDone())
+			return false;
+		try {
+			get.getResult();
+			return false;
+		} catch (final CancellationException e) {
+			return true;
+		} catch (final Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Call {@code action} with the result or the exception of the task once it is done, immediately if it is done
+	 * already. Actions are executed on the Python worker thread and must be short.
+	 */
+	public void whenComplete(final BiConsumer<? super T, ? super Exception> action) {
+		whenDone(() -> {
+			T result = null;
+			Exception exception = null;
+			try {
+				result = get.getResult();
+			} catch (final Exception e) {
+				exception = e;
+			}
+			action.accept(result, exception);
+		});
+	}
+
+	/**
+	 * @return a {@link CompletableFuture} that completes with this task. Cancelling it cancels the task if it is still
+	 * queued.
+	 */
+	public CompletableFuture<T> toCompletableFuture() {
+		final CompletableFuture<T> future = new CompletableFuture<T>() {
+			@Override
+			public boolean cancel(final boolean mayInterruptIfRunning) {
+				return PythonFuture.this.cancel() && super.cancel(mayInterruptIfRunning);
+			}
+		};
+		whenComplete((result, exception) -> {
+			if (exception == null)
+				future.complete(result);
+			else
+				future.completeExceptionally(exception);
+		});
+		return future;
+	}
+
+	/**
+	 * Run {@code callback} once the task is done, i.e. when {@link #get()} does not block anymore. Callbacks are
+	 * executed on the Python worker thread and must be short.
+	 */
+	void whenDone(final Runnable callback) {
+		if (whenDone != null)
+			whenDone.accept(callback);
+		else if (isDone())
+			callback.run();
+		else
+			// waiting for the latch would block a thread for each callback
+			throw new UnsupportedOperationException("Callbacks require a future of a PythonWorkerQueue.");
+	}
 }
@@ -0,0 +1,58 @@
+package net.imglib2.cache.python;
+
+import jep.Interpreter;
+import jep.JepConfig;
+import jep.JepException;
+import jep.SharedInterpreter;
+import jep.SubInterpreter;
+
+/**
+ * Creates the embedded interpreter for each worker of a {@link PythonWorkerQueue}. The interpreter is created, used,
+ * and closed on the worker thread.
+ */
+@FunctionalInterface
+public interface PythonInterpreterFactory {
+
+	Interpreter create() throws JepException;
+
+	/**
+	 * Interpreters that share all modules and the GIL. This is the default.
+	 */
+	static PythonInterpreterFactory shared() {
+		return SharedInterpreter::new;
+	}
+
+	/**
+	 * Isolated sub-interpreters. Extension modules that do not support sub-interpreters, like {@code numpy}, must be
+	 * listed in {@code sharedModules}.
+	 * <p>
+	 * With the Jep version this library depends on (3.9), all sub-interpreters share one GIL, so they isolate the
+	 * global state of the workers but do not compute in parallel. Use {@link PythonCacheLoaderQueue#withProcesses(int, String) worker processes} for
+	 * parallel Python code.
+	 */
+	static PythonInterpreterFactory subInterpreter(final String... sharedModules) {
+		return () -> new SubInterpreter(new JepConfig().addSharedModules(sharedModules));
+	}
+
+	/**
+	 * {@link #subInterpreter(String...) Sub-interpreters}, and {@link #shared()} interpreters if creating a
+	 * sub-interpreter or importing any of the {@code sharedModules} into it fails. Like {@link #subInterpreter}, this
+	 * gives no parallelism over {@link #shared()} interpreters, because all interpreters share one GIL in Jep 3.9.
+	 */
+	static PythonInterpreterFactory subInterpreterOrShared(final String... sharedModules) {
+		final PythonInterpreterFactory subInterpreter = subInterpreter(sharedModules);
+		return () -> {
+			Interpreter python = null;
+			try {
+				python = subInterpreter.create();
+				for (final String module : sharedModules)
+					python.exec("import " + module);
+				return python;
+			} catch (final JepException e) {
+				if (python != null)
+					python.close();
+				return new SharedInterpreter();
+			}
+		};
+	}
+}
@@ -0,0 +1,52 @@
+package net.imglib2.cache.python;
+
+/**
+ * Receives measurements from {@link PythonWorkerQueue}s and {@link PythonCacheLoader}s, see
+ * {@link PythonWorkerQueue#setMetrics(PythonMetrics)}. Methods are called on the hot path, e.g. by Python worker
+ * threads, and must return quickly. All methods do nothing by default.
+ *
+ * @see PythonStats
+ */
+public interface PythonMetrics {
+
+	PythonMetrics NONE = new PythonMetrics() {};
+
+	/**
+	 * A worker started a task that waited {@code queueWaitNanos} since it was submitted.
+	 */
+	default void taskStarted(long queueWaitNanos) {
+	}
+
+	/**
+	 * {@code worker} executed {@code numTasks} tasks in a single Python call, more than one for batches.
+	 *
+	 * @param isFailed the Python call threw an exception
+	 */
+	default void executed(String worker, int numTasks, long executionNanos, boolean isFailed) {
+	}
+
+	/**
+	 * A loader created an input for Python.
+	 *
+	 * @param isZeroCopy the input is a cell of a {@code CachedCellImg} that is passed without a copy
+	 * @param numBytes size of the copy, {@code 0} for zero-copy inputs
+	 */
+	default void inputStaged(long stagingNanos, boolean isZeroCopy, long numBytes) {
+	}
+
+	/**
+	 * A loader acquired an output buffer of {@code numBytes} for a cell.
+	 */
+	default void outputAllocated(long numBytes) {
+	}
+
+	/**
+	 * Trace event for each cell that was computed by Python.
+	 *
+	 * @param stagingNanos time to create all inputs of the cell
+	 * @param computeNanos time from submission to the worker queue until completion, i.e. queue wait and execution
+	 * @param isValid {@code false} if the computation failed or was cancelled
+	 */
+	default void cellComputed(long key, long stagingNanos, long computeNanos, boolean isValid) {
+	}
+}
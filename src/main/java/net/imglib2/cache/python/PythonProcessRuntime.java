@@ -0,0 +1,369 @@
+package net.imglib2.cache.python;
+
+import jep.DirectNDArray;
+import jep.JepException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes {@link PythonCacheLoaderBlockTask}s in a separate Python process, i.e. without sharing the GIL with other
+ * workers. Block data is exchanged through a memory-mapped file, everything else through the standard input and
+ * output of the process. See {@code python_worker.py} for the protocol. Other {@link PythonTask}s are not supported
+ * (see {@link #factory(String)}). A process that died or failed to exchange a block is replaced by a new one.
+ */
+class PythonProcessRuntime implements PythonRuntime {
+
+	private static final int BLOCK = 1;
+	private static final int BATCH = 2;
+	private static final int EXIT = 3;
+	private static final int OK = 0;
+
+	private static final int ALIGNMENT = 64;
+	private static final long PAGE_SIZE = 4096;
+
+	private final String pythonExecutable;
+	private final String init;
+	private Process process = null;
+	private DataOutputStream toPython = null;
+	private DataInputStream fromPython = null;
+	private Path sharedMemoryPath = null;
+	private FileChannel sharedMemoryChannel = null;
+	private MappedByteBuffer sharedMemory = null;
+
+	private PythonProcessRuntime(final String pythonExecutable, final String init) {
+		this.pythonExecutable = pythonExecutable;
+		this.init = init;
+	}
+
+	static PythonRuntime.Factory factory(final String pythonExecutable) {
+		return new PythonRuntime.Factory() {
+			@Override
+			public PythonRuntime create(final String init) throws JepException {
+				return PythonProcessRuntime.create(pythonExecutable, init);
+			}
+
+			@Override
+			public boolean supports(final PythonTask<?> task) {
+				return task instanceof PythonCacheLoaderBlockTask;
+			}
+		};
+	}
+
+	static PythonProcessRuntime create(final String pythonExecutable, final String init) throws JepException {
+		final PythonProcessRuntime runtime = new PythonProcessRuntime(pythonExecutable, init);
+		runtime.start();
+		return runtime;
+	}
+
+	/**
+	 * Start the process and run {@code init}.
+	 */
+	private void start() throws JepException {
+		try {
+			sharedMemoryPath = createSharedMemoryFile();
+			sharedMemoryChannel = FileChannel.open(sharedMemoryPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			process = new ProcessBuilder(pythonExecutable, "-c", workerScript())
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start();
+			toPython = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+			fromPython = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+			writeString(sharedMemoryPath.toString());
+			writeString(init == null ? "" : init);
+			toPython.flush();
+			checkStatus();
+		} catch (final IOException | JepException e) {
+			stop();
+			if (e instanceof JepException)
+				throw (JepException) e;
+			throw new JepException("Unable to start Python worker process: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Kill the process, e.g. after it failed, and release its shared memory. The next task starts a new process.
+	 */
+	private void stop() {
+		if (process != null)
+			process.destroy();
+		process = null;
+		toPython = null;
+		fromPython = null;
+		sharedMemory = null;
+		closeQuietly(sharedMemoryChannel, sharedMemoryPath);
+		sharedMemoryChannel = null;
+		sharedMemoryPath = null;
+	}
+
+	/**
+	 * @return {@code python3} in {@code PYTHONHOME}, if set, or on the {@code PATH} otherwise
+	 */
+	static String defaultPythonExecutable() {
+		final String pythonHome = System.getenv("PYTHONHOME");
+		return pythonHome == null ? "python3" : Paths.get(pythonHome, "bin", "python3").toString();
+	}
+
+	@Override
+	public <T> T execute(final PythonTask<T> task) throws Exception {
+		// the queue only accepts block tasks, see factory
+		final PythonCacheLoaderBlockTask blockTask = (PythonCacheLoaderBlockTask) task;
+		run(BLOCK, blockTask.getCodeKey(), blockTask.getCode(), Collections.singletonList(blockTask));
+		return null;
+	}
+
+	@Override
+	public void execute(final PythonBatch batch, final List<? extends PythonTask<?>> tasks) throws Exception {
+		final PythonCacheLoaderBatch blockBatch = (PythonCacheLoaderBatch) batch;
+		@SuppressWarnings("unchecked")
+		final List<PythonCacheLoaderBlockTask> blockTasks = (List<PythonCacheLoaderBlockTask>) tasks;
+		run(BATCH, blockBatch.getCodeKey(), blockBatch.getCode(), blockTasks);
+	}
+
+	/**
+	 * Run {@code tasks} on the process. A process that died, e.g. killed by the OS, is replaced before. If the
+	 * exchange with the process fails, the tasks fail and the process is replaced on the next call.
+	 */
+	private void run(
+			final int message,
+			final Long codeKey,
+			final String code,
+			final List<PythonCacheLoaderBlockTask> tasks) throws JepException {
+		if (process == null || !process.isAlive()) {
+			stop();
+			start();
+		}
+		try {
+			exchange(message, codeKey, code, tasks);
+		} catch (final IOException e) {
+			// the process may have died or be out of sync with the protocol
+			stop();
+			throw new JepException("Python worker process failed: " + e.getMessage(), e);
+		}
+	}
+
+	private void exchange(
+			final int message,
+			final Long codeKey,
+			final String code,
+			final List<PythonCacheLoaderBlockTask> tasks) throws IOException, JepException {
+
+		// Lay out all outputs and inputs in shared memory and copy inputs.
+		final long[][] offsets = new long[tasks.size()][];
+		final DirectNDArray<?>[][] taskInputs = new DirectNDArray<?>[tasks.size()][];
+		long size = 0;
+		for (int i = 0; i < offsets.length; ++i) {
+			final PythonCacheLoaderBlockTask task = tasks.get(i);
+			final DirectNDArray<?>[] inputs = taskInputs[i] = contiguous(task.getInputs());
+			final Buffer[] outputs = task.getOutputs();
+			offsets[i] = new long[inputs.length + outputs.length + 1];
+			offsets[i][0] = size;
+			size = align(size + Buffers.numBytes(task.getBuffer()));
+			for (int k = 0; k < inputs.length; ++k) {
+				offsets[i][k + 1] = size;
+				size = align(size + Buffers.numBytes(inputs[k].getData()));
+			}
+			for (int k = 0; k < outputs.length; ++k) {
+				offsets[i][inputs.length + k + 1] = size;
+				size = align(size + Buffers.numBytes(outputs[k]));
+			}
+		}
+		ensureCapacity(size);
+		for (int i = 0; i < offsets.length; ++i) {
+			final DirectNDArray<?>[] inputs = taskInputs[i];
+			for (int k = 0; k < inputs.length; ++k)
+				Buffers.copy(inputs[k].getData(), region(offsets[i][k + 1], inputs[k].getData()));
+		}
+
+		toPython.writeInt(message);
+		toPython.writeLong(sharedMemory.capacity());
+		toPython.writeLong(codeKey == null ? -1 : codeKey);
+		writeString(code);
+		toPython.writeInt(tasks.size());
+		for (int i = 0; i < offsets.length; ++i) {
+			final PythonCacheLoaderBlockTask task = tasks.get(i);
+			final DirectNDArray<?>[] inputs = taskInputs[i];
+			writeArray(task.getBuffer(), false, offsets[i][0], task.getNDArrayShape());
+			toPython.writeInt(inputs.length);
+			for (int k = 0; k < inputs.length; ++k)
+				writeArray(inputs[k].getData(), inputs[k].isUnsigned(), offsets[i][k + 1], inputs[k].getDimensions());
+			final Buffer[] outputs = task.getOutputs();
+			toPython.writeInt(outputs.length);
+			for (int k = 0; k < outputs.length; ++k) {
+				writeString(task.getOutputNames()[k]);
+				writeArray(outputs[k], false, offsets[i][inputs.length + k + 1], task.getNDArrayShape());
+			}
+			toPython.writeLong(task.getIndex());
+			writeLongs(task.getNDArrayMin());
+			writeLongs(task.getNDArrayMax());
+			writeInts(task.getNDArrayShape());
+			writeInts(task.getHalo().getLowerCopy());
+			writeInts(task.getHalo().getUpperCopy());
+		}
+		toPython.flush();
+		checkStatus();
+
+		for (int i = 0; i < offsets.length; ++i) {
+			final Buffer output = tasks.get(i).getBuffer();
+			Buffers.copy(region(offsets[i][0], output), output);
+			final Buffer[] outputs = tasks.get(i).getOutputs();
+			final int numInputs = taskInputs[i].length;
+			for (int k = 0; k < outputs.length; ++k)
+				Buffers.copy(region(offsets[i][numInputs + k + 1], outputs[k]), outputs[k]);
+		}
+	}
+
+	/**
+	 * @return {@code inputs} with strided views replaced by contiguous copies: the process only receives the elements
+	 * of each input, not the buffers they are views of
+	 */
+	private static DirectNDArray<?>[] contiguous(final DirectNDArray<?>[] inputs) {
+		final DirectNDArray<?>[] contiguous = inputs.clone();
+		for (int k = 0; k < contiguous.length; ++k)
+			if (contiguous[k] instanceof StridedNDArray)
+				contiguous[k] = ((StridedNDArray<?>) contiguous[k]).toContiguous();
+		return contiguous;
+	}
+
+	private void ensureCapacity(final long size) throws IOException {
+		if (sharedMemory != null && sharedMemory.capacity() >= size)
+			return;
+		final long currentSize = sharedMemory == null ? 0 : sharedMemory.capacity();
+		final long newSize = (Math.max(Math.max(size, 2 * currentSize), PAGE_SIZE) + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+		if (newSize > Integer.MAX_VALUE)
+			throw new IOException("Blocks exceed maximum shared memory size: " + size + " bytes.");
+		// mapping beyond the end of the file grows the file
+		sharedMemory = sharedMemoryChannel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+	}
+
+	private ByteBuffer region(final long offset, final Buffer buffer) {
+		final ByteBuffer region = sharedMemory.duplicate();
+		region.position((int) offset);
+		region.limit((int) (offset + Buffers.numBytes(buffer)));
+		return region.slice();
+	}
+
+	private static long align(final long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private void writeArray(final Buffer buffer, final boolean isUnsigned, final long offset, final int[] shape) throws IOException {
+		writeString(dtype(buffer, isUnsigned));
+		toPython.writeLong(offset);
+		writeInts(shape);
+	}
+
+	private void writeString(final String string) throws IOException {
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		toPython.writeInt(bytes.length);
+		toPython.write(bytes);
+	}
+
+	private void writeInts(final int[] values) throws IOException {
+		toPython.writeInt(values.length);
+		for (final int value : values)
+			toPython.writeInt(value);
+	}
+
+	private void writeLongs(final long[] values) throws IOException {
+		toPython.writeInt(values.length);
+		for (final long value : values)
+			toPython.writeLong(value);
+	}
+
+	private void checkStatus() throws IOException, JepException {
+		if (fromPython.readInt() == OK)
+			return;
+		final byte[] message = new byte[fromPython.readInt()];
+		fromPython.readFully(message);
+		throw new JepException(new String(message, StandardCharsets.UTF_8));
+	}
+
+	private static String dtype(final Buffer buffer, final boolean isUnsigned) {
+		final String order = Buffers.order(buffer) == ByteOrder.LITTLE_ENDIAN ? "<" : ">";
+		final String kind;
+		if (buffer instanceof FloatBuffer || buffer instanceof DoubleBuffer)
+			kind = "f";
+		else if (isUnsigned || buffer instanceof CharBuffer)
+			kind = "u";
+		else if (buffer instanceof ByteBuffer || buffer instanceof ShortBuffer || buffer instanceof IntBuffer || buffer instanceof LongBuffer)
+			kind = "i";
+		else
+			throw new IllegalArgumentException("Unsupported buffer: " + buffer);
+		return order + kind + Buffers.bytesPerElement(buffer);
+	}
+
+	private static Path createSharedMemoryFile() throws IOException {
+		final Path shm = Paths.get("/dev/shm");
+		final Path directory = Files.isDirectory(shm) && Files.isWritable(shm)
+				? shm
+				: Paths.get(System.getProperty("java.io.tmpdir"));
+		final Path path = Files.createTempFile(directory, "imglib2-cache-python-", ".shm");
+		path.toFile().deleteOnExit();
+		return path;
+	}
+
+	private static String workerScript() throws IOException {
+		try (final InputStream script = PythonProcessRuntime.class.getResourceAsStream("python_worker.py")) {
+			if (script == null)
+				throw new IOException("Unable to find python_worker.py");
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] chunk = new byte[4096];
+			for (int n = script.read(chunk); n >= 0; n = script.read(chunk))
+				bytes.write(chunk, 0, n);
+			return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void closeQuietly(final FileChannel channel, final Path path) {
+		try {
+			if (channel != null)
+				channel.close();
+			if (path != null)
+				Files.deleteIfExists(path);
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (process == null)
+			return;
+		try {
+			toPython.writeInt(EXIT);
+			toPython.flush();
+			if (process.waitFor(10, TimeUnit.SECONDS))
+				process = null;
+		} catch (final IOException e) {
+			// killed below
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			stop();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package net.imglib2.cache.python;
+
+import jep.JepException;
+
+import java.util.List;
+
+/**
+ * The Python runtime that a single worker of a {@link PythonWorkerQueue} executes its tasks on. A runtime is created,
+ * used, and closed on the same worker thread.
+ */
+interface PythonRuntime extends AutoCloseable {
+
+	interface Factory {
+		PythonRuntime create(String init) throws JepException;
+
+		/**
+		 * @return {@code true} if runtimes of this factory can execute {@code task}. Unsupported tasks are rejected
+		 * when they are submitted.
+		 */
+		default boolean supports(PythonTask<?> task) {
+			return true;
+		}
+	}
+
+	<T> T execute(PythonTask<T> task) throws Exception;
+
+	void execute(PythonBatch batch, List<? extends PythonTask<?>> tasks) throws Exception;
+
+	@Override
+	void close() throws JepException;
+}
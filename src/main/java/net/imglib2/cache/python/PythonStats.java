@@ -0,0 +1,169 @@
+package net.imglib2.cache.python;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * {@link PythonMetrics} that aggregates counters and times, e.g. to choose the number of workers, block size, or halo.
+ * Can be registered with the platform MBean server to be inspected with JConsole or VisualVM:
+ *
+ * <pre>{@code
+ * final PythonStats stats = PythonStats.attachTo(queue);
+ * stats.register("my-loader");
+ * }</pre>
+ */
+public class PythonStats implements PythonMetrics, PythonStatsMXBean {
+
+	private final IntSupplier queueDepth;
+
+	private final LongAdder tasksStarted = new LongAdder();
+	private final LongAdder queueWaitNanos = new LongAdder();
+	private final LongAdder executions = new LongAdder();
+	private final LongAdder failedExecutions = new LongAdder();
+	private final LongAdder executionNanos = new LongAdder();
+	private final LongAdder zeroCopyInputs = new LongAdder();
+	private final LongAdder copiedInputs = new LongAdder();
+	private final LongAdder stagingNanos = new LongAdder();
+	private final LongAdder bytesAllocated = new LongAdder();
+	private final ConcurrentHashMap<String, LongAdder> busyNanos = new ConcurrentHashMap<>();
+	private volatile long resetNanos = System.nanoTime();
+
+	/**
+	 * @param queueDepth number of queued tasks, see {@link PythonWorkerQueue#getQueueDepth()}
+	 */
+	public PythonStats(final IntSupplier queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	public PythonStats() {
+		this(() -> 0);
+	}
+
+	/**
+	 * Create statistics for {@code queue} and all loaders that use it, and set them as the metrics of {@code queue}.
+	 */
+	public static PythonStats attachTo(final PythonWorkerQueue queue) {
+		final PythonStats stats = new PythonStats(queue::getQueueDepth);
+		queue.setMetrics(stats);
+		return stats;
+	}
+
+	/**
+	 * Register with the platform MBean server as {@code net.imglib2.cache.python:type=PythonStats,name=<name>}.
+	 */
+	public ObjectName register(final String name) throws JMException {
+		final ObjectName objectName = new ObjectName("net.imglib2.cache.python:type=PythonStats,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public void taskStarted(final long queueWaitNanos) {
+		tasksStarted.increment();
+		this.queueWaitNanos.add(queueWaitNanos);
+	}
+
+	@Override
+	public void executed(final String worker, final int numTasks, final long executionNanos, final boolean isFailed) {
+		executions.increment();
+		if (isFailed)
+			failedExecutions.increment();
+		this.executionNanos.add(executionNanos);
+		busyNanos.computeIfAbsent(worker, w -> new LongAdder()).add(executionNanos);
+	}
+
+	@Override
+	public void inputStaged(final long stagingNanos, final boolean isZeroCopy, final long numBytes) {
+		(isZeroCopy ? zeroCopyInputs : copiedInputs).increment();
+		this.stagingNanos.add(stagingNanos);
+		bytesAllocated.add(numBytes);
+	}
+
+	@Override
+	public void outputAllocated(final long numBytes) {
+		bytesAllocated.add(numBytes);
+	}
+
+	@Override
+	public long getTasksStarted() {
+		return tasksStarted.sum();
+	}
+
+	@Override
+	public long getExecutions() {
+		return executions.sum();
+	}
+
+	@Override
+	public long getFailedExecutions() {
+		return failedExecutions.sum();
+	}
+
+	@Override
+	public double getMeanQueueWaitMillis() {
+		return meanMillis(queueWaitNanos, tasksStarted);
+	}
+
+	@Override
+	public double getMeanExecutionMillis() {
+		return meanMillis(executionNanos, executions);
+	}
+
+	@Override
+	public long getZeroCopyInputs() {
+		return zeroCopyInputs.sum();
+	}
+
+	@Override
+	public long getCopiedInputs() {
+		return copiedInputs.sum();
+	}
+
+	@Override
+	public double getMeanStagingMillis() {
+		return stagingNanos.sum() / 1e6 / Math.max(1, zeroCopyInputs.sum() + copiedInputs.sum());
+	}
+
+	@Override
+	public long getBytesAllocated() {
+		return bytesAllocated.sum();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return queueDepth.getAsInt();
+	}
+
+	@Override
+	public Map<String, Double> getWorkerUtilization() {
+		final double elapsed = Math.max(1, System.nanoTime() - resetNanos);
+		final Map<String, Double> utilization = new TreeMap<>();
+		busyNanos.forEach((worker, busy) -> utilization.put(worker, busy.sum() / elapsed));
+		return utilization;
+	}
+
+	@Override
+	public void reset() {
+		tasksStarted.reset();
+		queueWaitNanos.reset();
+		executions.reset();
+		failedExecutions.reset();
+		executionNanos.reset();
+		zeroCopyInputs.reset();
+		copiedInputs.reset();
+		stagingNanos.reset();
+		bytesAllocated.reset();
+		busyNanos.values().forEach(LongAdder::reset);
+		resetNanos = System.nanoTime();
+	}
+
+	private static double meanMillis(final LongAdder nanos, final LongAdder count) {
+		return nanos.sum() / 1e6 / Math.max(1, count.sum());
+	}
+}
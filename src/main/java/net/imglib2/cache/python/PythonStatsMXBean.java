@@ -0,0 +1,36 @@
+package net.imglib2.cache.python;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link PythonStats}. Times are in milliseconds.
+ */
+public interface PythonStatsMXBean {
+
+	long getTasksStarted();
+
+	long getExecutions();
+
+	long getFailedExecutions();
+
+	double getMeanQueueWaitMillis();
+
+	double getMeanExecutionMillis();
+
+	long getZeroCopyInputs();
+
+	long getCopiedInputs();
+
+	double getMeanStagingMillis();
+
+	long getBytesAllocated();
+
+	int getQueueDepth();
+
+	/**
+	 * @return fraction of time each worker spent executing Python since creation or the last reset
+	 */
+	Map<String, Double> getWorkerUtilization();
+
+	void reset();
+}
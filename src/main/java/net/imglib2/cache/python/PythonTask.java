@@ -1,15 +1,32 @@
 package net.imglib2.cache.python;
 
-import jep.SharedInterpreter;
+import jep.Interpreter;
 
 interface PythonTask<T> {
-	T execute(SharedInterpreter python) throws Exception;
+	T execute(Interpreter python) throws Exception;
+
+	/**
+	 * @return the batch this task may be executed in together with other tasks, or {@code null} if this task must be
+	 * executed on its own. Batched tasks complete with a {@code null} result.
+	 */
+	default PythonBatch batch() {
+		return null;
+	}
+
+	/**
+	 * @return key of the worker that should preferably execute this task, or {@code null} for any worker. Tasks with
+	 * equal keys prefer the same worker, e.g. to reuse state that an earlier task left in its interpreter. Idle workers
+	 * steal tasks that prefer other workers.
+	 */
+	default Object affinity() {
+		return null;
+	}
 
 	interface Runnable extends PythonTask<Void> {
-		void run(SharedInterpreter python) throws Exception;
+		void run(Interpreter python) throws Exception;
 
 		@Override
-		default Void execute(final SharedInterpreter python) throws Exception {
+		default Void execute(final Interpreter python) throws Exception {
 			run(python);
 			return null;
 		}
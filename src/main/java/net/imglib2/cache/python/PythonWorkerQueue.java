@@ -1,41 +1,124 @@
 package net.imglib2.cache.python;
 
 import jep.JepException;
-import jep.SharedInterpreter;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PythonWorkerQueue implements AutoCloseable {
 
-	private interface PythonConsumer extends Consumer<SharedInterpreter> {
+	private static class PythonExecution<T> {
 
-	}
-
-	private static class PythonExecution<T> implements PythonConsumer {
+		private static final int QUEUED = 0;
+		private static final int RUNNING = 1;
+		private static final int DONE = 2;
 
 		private final PythonTask<T> task;
+		private final int priority;
+		private final int worker;
+		private final long deadline;
+		private final boolean hasDeadline;
+		private final long submitted = System.nanoTime();
+		private final AtomicInteger state = new AtomicInteger(QUEUED);
 		private final CountDownLatch latch = new CountDownLatch(1);
+		private final List<Runnable> callbacks = new ArrayList<>();
 		private Exception e = null;
 		private T result = null;
 
-		private PythonExecution(PythonTask<T> task) {
+		private PythonExecution(PythonTask<T> task, int priority) {
+			this(task, priority, WorkStealingTaskQueue.ANY_WORKER, -1, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * @param worker index of the preferred worker or {@link WorkStealingTaskQueue#ANY_WORKER}
+		 * @param timeout the task expires if it was not started within {@code timeout}, no timeout if negative
+		 */
+		private PythonExecution(PythonTask<T> task, int priority, int worker, long timeout, TimeUnit unit) {
 			this.task = task;
+			this.priority = priority;
+			this.worker = worker;
+			this.hasDeadline = timeout >= 0;
+			this.deadline = hasDeadline ? submitted + unit.toNanos(timeout) : 0;
+		}
+
+		/**
+		 * Claim this execution for a worker. Expired executions fail with a {@link TaskExpiredException}.
+		 *
+		 * @return {@code false} if this execution was cancelled, failed, or expired, and must not be executed
+		 */
+		private boolean start() {
+			if (hasDeadline && System.nanoTime() - deadline > 0) {
+				abort(new TaskExpiredException("Task expired before it was executed."));
+				return false;
+			}
+			return state.compareAndSet(QUEUED, RUNNING);
 		}
 
-		public void execute(final SharedInterpreter python) {
+		/**
+		 * Fail this execution with {@code e} if it was not started yet.
+		 */
+		private boolean abort(final Exception e) {
+			if (!state.compareAndSet(QUEUED, DONE))
+				return false;
+			fail(e);
+			return true;
+		}
+
+		/**
+		 * Execute the task and report to {@code metrics} before this execution completes.
+		 */
+		public void execute(final PythonRuntime runtime, final PythonMetrics metrics, final String worker) {
+			final long start = System.nanoTime();
+			final T result;
 			try {
-				this.result = task.execute(python);
+				result = runtime.execute(task);
 			} catch (final Exception e) {
-				this.e = e;
-			} finally {
+				metrics.executed(worker, 1, System.nanoTime() - start, true);
+				fail(e);
+				return;
+			}
+			metrics.executed(worker, 1, System.nanoTime() - start, false);
+			complete(result);
+		}
+
+		private void complete(final T result) {
+			this.result = result;
+			done();
+		}
+
+		private void fail(final Exception e) {
+			this.e = e;
+			done();
+		}
+
+		private void done() {
+			state.set(DONE);
+			final List<Runnable> callbacks;
+			synchronized (this) {
 				latch.countDown();
+				callbacks = new ArrayList<>(this.callbacks);
+				this.callbacks.clear();
 			}
+			callbacks.forEach(Runnable::run);
+		}
+
+		/**
+		 * Run {@code callback} once this execution completed or failed, immediately if it is done already.
+		 */
+		private void whenDone(final Runnable callback) {
+			synchronized (this) {
+				if (latch.getCount() > 0) {
+					callbacks.add(callback);
+					return;
+				}
+			}
+			callback.run();
 		}
 
 		public T getResultOrThrow() throws Exception {
@@ -43,104 +126,208 @@ public class PythonWorkerQueue implements AutoCloseable {
 				throw e;
 			return this.result;
 		}
-
-		@Override
-		public void accept(SharedInterpreter python) {
-			execute(python);
-		}
 	}
 
-	private static class Worker implements AutoCloseable {
-		private final BlockingQueue<PythonConsumer> queue;
-		private final String init;
+	/**
+	 * Signals a worker to shut down.
+	 */
+	private static final PythonExecution<Void> POISON = new PythonExecution<>(python -> null, Integer.MAX_VALUE);
+
+	/**
+	 * Priority of tasks submitted without explicit priority. Lower values are executed first.
+	 */
+	public static final int DEFAULT_PRIORITY = 0;
+
+	/**
+	 * Queue of the worker that runs on the current thread, {@code null} on all other threads.
+	 */
+	private static final ThreadLocal<PythonWorkerQueue> WORKER_QUEUE = new ThreadLocal<>();
+
+	private class Worker implements AutoCloseable {
+		private final int index;
+		private final String name;
 		private final Thread workerThread;
 
-		private boolean isClosed = false;
-		private final CountDownLatch pythonReady = new CountDownLatch(1);
+		/**
+		 * Completes once the interpreter is initialized, exceptionally with the {@link JepException} of its init.
+		 */
+		private final CompletableFuture<Void> initialized = new CompletableFuture<>();
 		private JepException initException = null;
 
-		public Worker(BlockingQueue<PythonConsumer> queue, String init, String name) throws InterruptedException, JepException {
-			this.queue = queue;
-			this.init = init;
+		/**
+		 * Start a worker thread for slot {@code index} of the queue. The interpreter is initialized on the worker
+		 * thread, see {@link #initialized}.
+		 */
+		public Worker(final int index) {
+			this.index = index;
+			this.name = "Python-" + index;
 			this.workerThread = new Thread(() -> {
-				final SharedInterpreter python = createAndInitPython();
-				if (python == null)
+				WORKER_QUEUE.set(PythonWorkerQueue.this);
+				final PythonRuntime python = createAndInitPython();
+				if (python == null) {
+					stopped(this, initException);
 					return;
-				while (!this.isClosed) {
-					final PythonConsumer task = poll();
-					if (task == null)
-						continue;
-
-					task.accept(python);
 				}
 				try {
-					python.close();
-				} catch (JepException e) {
-					throw new RuntimeException(e);
+					for (PythonExecution<?> execution = take(); execution != POISON && execution != null; execution = take()) {
+						if (!start(execution))
+							continue;
+						final PythonBatch batch = execution.task.batch();
+						// batched code reads `batch`, even for a batch of one
+						if (batch == null)
+							execution.execute(python, getMetrics(), name);
+						else
+							executeBatch(python, batch, collectBatch(execution, batch));
+					}
+				} catch (final InterruptedException e) {
+					// interrupted while waiting for work: shut down
+				} finally {
+					try {
+						python.close();
+					} catch (JepException e) {
+						throw new RuntimeException(e);
+					}
 				}
+				stopped(this, null);
 			});
 			this.workerThread.setDaemon(true);
-			if (name != null)
-				this.workerThread.setName(name);
+			this.workerThread.setName(name);
 			this.workerThread.start();
-			pythonReady.await();
-			if (this.initException != null)
-				throw this.initException;
 		}
 
+		/**
+		 * @return the next execution, or {@code null} if this worker was idle for longer than the idle timeout and
+		 * retired
+		 */
+		private PythonExecution<?> take() throws InterruptedException {
+			idleWorkers.incrementAndGet();
+			try {
+				if (idleTimeoutNanos < 0)
+					return queue.take(index);
+				while (true) {
+					final PythonExecution<?> execution = queue.poll(index, idleTimeoutNanos, TimeUnit.NANOSECONDS);
+					if (execution != null || retire(this))
+						return execution;
+				}
+			} finally {
+				idleWorkers.decrementAndGet();
+			}
+		}
+
+		private boolean start(final PythonExecution<?> execution) {
+			if (!execution.start())
+				return false;
+			getMetrics().taskStarted(System.nanoTime() - execution.submitted);
+			return true;
+		}
+
+		private List<PythonExecution<?>> collectBatch(final PythonExecution<?> first, final PythonBatch batch) {
+			final List<PythonExecution<?>> executions = new ArrayList<>();
+			executions.add(first);
+			final long deadline = System.nanoTime() + batch.getMaxLingerNanos();
+			while (executions.size() < batch.getMaxSize()) {
+				final PythonExecution<?> queued = removeQueued(batch);
+				if (queued != null) {
+					if (start(queued))
+						executions.add(queued);
+					continue;
+				}
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+					break;
+				final PythonExecution<?> next;
+				try {
+					next = queue.poll(index, remaining, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					// preserve interrupt for the next take
+					Thread.currentThread().interrupt();
+					break;
+				}
+				if (next == null)
+					break;
+				if (next.task.batch() == batch) {
+					if (start(next))
+						executions.add(next);
+				} else {
+					// Only linger while there is no other work to do.
+					queue.put(next, next.priority, true, next.worker);
+					break;
+				}
+			}
+			return executions;
+		}
+
+		private PythonExecution<?> removeQueued(final PythonBatch batch) {
+			return queue.removeFirst(index, execution -> execution.task.batch() == batch);
+		}
 
-		private PythonConsumer poll() {
+		private void executeBatch(
+				final PythonRuntime python,
+				final PythonBatch batch,
+				final List<PythonExecution<?>> executions) {
+			final List<PythonTask<?>> tasks = new ArrayList<>();
+			for (final PythonExecution<?> execution : executions)
+				tasks.add(execution.task);
+			final long start = System.nanoTime();
+			Exception failure = null;
 			try {
-				return queue.poll(10, TimeUnit.MILLISECONDS);
-			} catch (InterruptedException e) {
-				return null;
+				python.execute(batch, tasks);
+			} catch (final Exception e) {
+				failure = e;
+			}
+			getMetrics().executed(name, executions.size(), System.nanoTime() - start, failure != null);
+			for (final PythonExecution<?> execution : executions) {
+				if (failure == null)
+					execution.complete(null);
+				else
+					execution.fail(failure);
 			}
 		}
 
-		private SharedInterpreter createAndInitPython() {
+		private PythonRuntime createAndInitPython() {
+			PythonRuntime python = null;
 			try {
-				final SharedInterpreter python = new SharedInterpreter();
-				initialize(python, this.init);
-				return python;
+				python = runtimeFactory.create(init);
 			} catch (JepException e) {
 				this.initException = e;
-				close();
-				return null;
-			} finally {
-				pythonReady.countDown();
 			}
+			startingWorkers.decrementAndGet();
+			if (python == null)
+				initialized.completeExceptionally(initException);
+			else
+				initialized.complete(null);
+			return python;
 		}
 
-		private static void initialize(SharedInterpreter python, String initBlock) throws JepException {
-			final String[] lines = {
-					"from dataclasses import dataclass",
-					"import numpy as np",
-					"@dataclass",
-					"class Block:",
-					"    data: np.ndarray",
-					"    inputs: list",
-					"    index: int",
-					"    min: tuple",
-					"    max: tuple",
-					"    dim: tuple",
-					"    halo: tuple"
-			};
-			final String init = String.join("\n", lines);
-			python.exec(init);
-			if (initBlock != null)
-				python.exec(initBlock);
-		}
-
+		/**
+		 * Wait for the worker to shut down. The worker must have been signalled before, e.g. through {@link #POISON}.
+		 */
 		@Override
-		public void close() {
-			this.isClosed = true;
+		public void close() throws InterruptedException {
+			workerThread.join();
 		}
 
 	}
 
 	private final String init;
-	private final List<Worker> workers = new ArrayList<>();
-	private final LinkedBlockingDeque<PythonConsumer> queue = new LinkedBlockingDeque<>();
+	private final PythonRuntime.Factory runtimeFactory;
+	private final int minWorkers;
+	private final long idleTimeoutNanos;
+	/**
+	 * Running workers by their index, {@code null} for free slots. Guards {@link #numWorkers}.
+	 */
+	private final Worker[] workers;
+	private volatile int numWorkers = 0;
+	private final AtomicInteger idleWorkers = new AtomicInteger();
+	private final AtomicInteger startingWorkers = new AtomicInteger();
+	private final WorkStealingTaskQueue<PythonExecution<?>> queue;
+	private final CompletableFuture<Void> ready;
+	private volatile boolean isClosed = false;
+	/**
+	 * Init exception of the first worker that failed to initialize. No more workers are started after that.
+	 */
+	private volatile JepException initFailure = null;
+	private volatile PythonMetrics metrics = PythonMetrics.NONE;
 
 	public PythonWorkerQueue() throws InterruptedException, JepException {
 		this(1);
@@ -151,24 +338,290 @@ public class PythonWorkerQueue implements AutoCloseable {
 	}
 
 	public PythonWorkerQueue(final int numWorkers, final String init) throws InterruptedException, JepException {
+		this(numWorkers, init, PythonInterpreterFactory.shared());
+	}
+
+	public PythonWorkerQueue(
+			final int numWorkers,
+			final String init,
+			final PythonInterpreterFactory interpreterFactory) throws InterruptedException, JepException {
+		this(numWorkers, init, InterpreterRuntime.factory(interpreterFactory));
+	}
+
+	PythonWorkerQueue(
+			final int numWorkers,
+			final String init,
+			final PythonRuntime.Factory runtimeFactory) throws InterruptedException, JepException {
+		this(numWorkers, numWorkers, -1, init, runtimeFactory);
+	}
+
+	/**
+	 * @param idleTimeoutNanos workers beyond {@code minWorkers} shut down after being idle for that long, never if
+	 * negative
+	 */
+	PythonWorkerQueue(
+			final int minWorkers,
+			final int maxWorkers,
+			final long idleTimeoutNanos,
+			final String init,
+			final PythonRuntime.Factory runtimeFactory) throws InterruptedException, JepException {
+		if (minWorkers < 0 || maxWorkers < minWorkers)
+			throw new IllegalArgumentException("Expected 0 <= minWorkers <= maxWorkers but got " + minWorkers + " and " + maxWorkers);
 		this.init = init;
-		for (int w = 0; w < numWorkers; ++w) {
-			this.workers.add(new Worker(queue, this.init, "Python-" + w));
+		this.runtimeFactory = runtimeFactory;
+		this.minWorkers = minWorkers;
+		this.idleTimeoutNanos = idleTimeoutNanos;
+		this.workers = new Worker[maxWorkers];
+		this.queue = new WorkStealingTaskQueue<>(maxWorkers);
+		// initialize all interpreters concurrently
+		final CompletableFuture<?>[] initialized = new CompletableFuture<?>[minWorkers];
+		synchronized (workers) {
+			for (int w = 0; w < minWorkers; ++w)
+				initialized[w] = startWorker(w).initialized;
+		}
+		this.ready = CompletableFuture.allOf(initialized);
+		if (minWorkers == 0)
+			return;
+		try {
+			// the queue is usable as soon as the first worker is ready
+			CompletableFuture.anyOf(initialized).get();
+		} catch (final InterruptedException e) {
+			close();
+			throw e;
+		} catch (final ExecutionException e) {
+			close();
+			throw (JepException) e.getCause();
+		}
+	}
+
+	/**
+	 * @return a future that completes once all initial workers are initialized, or exceptionally with the init
+	 * exception of a worker that failed. The constructor returns as soon as the first worker is ready and tasks are
+	 * executed by the workers that are ready, i.e. waiting for this future is only necessary to detect init failures of
+	 * the remaining workers or to measure start-up.
+	 */
+	public CompletableFuture<Void> whenReady() {
+		return ready;
+	}
+
+	/**
+	 * Create a queue that starts with {@code minWorkers} workers and starts more workers, up to {@code maxWorkers},
+	 * while tasks are queued and no worker is idle. Workers beyond {@code minWorkers} shut down and release their
+	 * interpreter (e.g. the memory of a model loaded in {@code init}) after they were idle for {@code idleTimeout}.
+	 * Tasks may wait for the {@code init} of a new worker, or may be executed by a busy worker that becomes available
+	 * earlier. Once the {@code init} of a worker failed, no more workers are started: tasks are executed by the
+	 * running workers, or fail with the init exception if no worker is running.
+	 */
+	public static PythonWorkerQueue elastic(
+			final int minWorkers,
+			final int maxWorkers,
+			final long idleTimeout,
+			final TimeUnit unit,
+			final String init) throws InterruptedException, JepException {
+		return new PythonWorkerQueue(minWorkers, maxWorkers, unit.toNanos(idleTimeout), init, InterpreterRuntime.factory(PythonInterpreterFactory.shared()));
+	}
+
+	/**
+	 * Start a worker in free slot {@code index}. Requires the lock on {@link #workers}.
+	 */
+	private Worker startWorker(final int index) {
+		startingWorkers.incrementAndGet();
+		final Worker worker = new Worker(index);
+		workers[index] = worker;
+		++numWorkers;
+		return worker;
+	}
+
+	/**
+	 * Start another worker if tasks are queued that neither idle nor starting workers will take.
+	 */
+	private void startWorkerForBacklog() {
+		if (initFailure != null || numWorkers == workers.length || queue.size() <= idleWorkers.get() + startingWorkers.get())
+			return;
+		synchronized (workers) {
+			if (isClosed || numWorkers == workers.length)
+				return;
+			for (int w = 0; w < workers.length; ++w) {
+				if (workers[w] == null) {
+					startWorker(w);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if {@code worker} may shut down because more than {@link #minWorkers} are running
+	 */
+	private boolean retire(final Worker worker) {
+		synchronized (workers) {
+			if (isClosed || numWorkers <= minWorkers)
+				return false;
+			workers[worker.index] = null;
+			--numWorkers;
+			return true;
 		}
 	}
 
+	/**
+	 * Called on the thread of {@code worker} when it shut down, with the {@code initException} if its interpreter
+	 * could not be initialized.
+	 */
+	private void stopped(final Worker worker, final JepException initException) {
+		if (initException != null) {
+			final boolean isLast;
+			synchronized (workers) {
+				// the init would most likely fail again for every submitted task
+				if (initFailure == null)
+					initFailure = initException;
+				if (workers[worker.index] == worker) {
+					workers[worker.index] = null;
+					--numWorkers;
+				}
+				isLast = numWorkers == 0;
+			}
+			// without any worker, queued tasks would never complete
+			if (isLast)
+				failQueued(initException);
+			return;
+		}
+		// a task may have been submitted while this worker retired
+		startWorkerForBacklog();
+	}
+
+	/**
+	 * @return number of running workers
+	 */
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+
+	String getInit() {
+		return init;
+	}
+
+	/**
+	 * @return {@code true} if the current thread is a worker of this queue, e.g. while Python stages a lazy input
+	 */
+	boolean isWorkerThread() {
+		return WORKER_QUEUE.get() == this;
+	}
+
+	/**
+	 * Report measurements of this queue and of all {@link PythonCacheLoader}s that use it to {@code metrics}, e.g.
+	 * {@link PythonStats}.
+	 */
+	public void setMetrics(final PythonMetrics metrics) {
+		this.metrics = metrics == null ? PythonMetrics.NONE : metrics;
+	}
+
+	public PythonMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return number of tasks that wait for a worker
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
 	public <T> PythonFuture<T> submit(final PythonTask<T> task) {
-		final PythonExecution<T> r = new PythonExecution<>(task);
-		this.queue.add(r);
-		return new PythonFuture<>(r::getResultOrThrow, r.latch);
+		return submit(task, DEFAULT_PRIORITY, false);
+	}
+
+	/**
+	 * Submit {@code task} with {@code priority}. Queued tasks with lower priority values are executed first. Within
+	 * a priority level, tasks are executed in submission order unless {@code enqueueToFront} is set: such tasks are
+	 * executed before all other queued tasks of that level (LIFO), e.g. to serve the most recent request of a viewer
+	 * first.
+	 */
+	public <T> PythonFuture<T> submit(final PythonTask<T> task, final int priority, final boolean enqueueToFront) {
+		return submit(task, priority, enqueueToFront, -1, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Submit {@code task} like {@link #submit(PythonTask, int, boolean)}. If no worker started the task within
+	 * {@code timeout}, the task is dropped and fails with a {@link TaskExpiredException}, i.e. it counts as cancelled.
+	 * A negative {@code timeout} never expires.
+	 *
+	 * @throws UnsupportedOperationException if the workers cannot execute {@code task}, e.g. tasks other than block
+	 * tasks on Python processes (see {@link PythonCacheLoaderQueue#withProcesses(int, String)})
+	 */
+	public <T> PythonFuture<T> submit(
+			final PythonTask<T> task,
+			final int priority,
+			final boolean enqueueToFront,
+			final long timeout,
+			final TimeUnit unit) {
+		if (!runtimeFactory.supports(task))
+			throw new UnsupportedOperationException("The workers of this queue cannot execute " + task);
+		final PythonExecution<T> r = new PythonExecution<>(task, priority, workerFor(task.affinity()), timeout, unit);
+		this.queue.put(r, priority, enqueueToFront, r.worker);
+		// close() may have drained the queue already
+		if (this.isClosed && this.queue.remove(r))
+			r.abort(new IllegalStateException("Worker queue is closed."));
+		else if (initFailure != null && numWorkers == 0 && this.queue.remove(r))
+			r.abort(initFailure);
+		else
+			startWorkerForBacklog();
+		return new PythonFuture<>(r::getResultOrThrow, r.latch, r::whenDone, () -> cancel(r));
 	}
 
 	public PythonFuture<Void> submit(final PythonTask.Runnable task) {
 		return submit((PythonTask<Void>) task);
 	}
 
+	public PythonFuture<Void> submit(final PythonTask.Runnable task, final int priority, final boolean enqueueToFront) {
+		return submit((PythonTask<Void>) task, priority, enqueueToFront);
+	}
+
+	/**
+	 * @return index of the worker that prefers tasks with {@code affinity}
+	 */
+	private int workerFor(final Object affinity) {
+		if (affinity == null || queue.numWorkers() == 0)
+			return WorkStealingTaskQueue.ANY_WORKER;
+		return Math.floorMod(affinity.hashCode(), queue.numWorkers());
+	}
+
+	private boolean cancel(final PythonExecution<?> execution) {
+		if (!execution.abort(new CancellationException("Task was cancelled before it was executed.")))
+			return false;
+		this.queue.remove(execution);
+		return true;
+	}
+
+	/**
+	 * Shut down all workers and close their interpreters. Tasks that are still queued fail with an
+	 * {@link IllegalStateException}, tasks that are already running complete before this method returns. If the
+	 * calling thread is interrupted, it stops waiting for the running tasks and keeps its interrupt status.
+	 */
+	@Override
 	public void close() {
-		for (final Worker worker : workers)
-			if (worker != null) worker.close();
+		this.isClosed = true;
+		failQueued(new IllegalStateException("Worker queue is closed."));
+		final List<Worker> running = new ArrayList<>();
+		synchronized (workers) {
+			for (final Worker worker : workers)
+				if (worker != null)
+					running.add(worker);
+		}
+		for (int w = 0; w < running.size(); ++w)
+			this.queue.put(POISON, POISON.priority, false, WorkStealingTaskQueue.ANY_WORKER);
+		try {
+			for (final Worker worker : running)
+				worker.close();
+		} catch (final InterruptedException e) {
+			// the workers still shut down once their running tasks are done
+			Thread.currentThread().interrupt();
+		}
+		failQueued(new IllegalStateException("Worker queue is closed."));
+	}
+
+	private void failQueued(final Exception e) {
+		for (final PythonExecution<?> execution : this.queue.drain())
+			if (execution != POISON)
+				execution.abort(e);
 	}
 }
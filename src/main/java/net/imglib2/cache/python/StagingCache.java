@@ -0,0 +1,209 @@
+package net.imglib2.cache.python;
+
+import jep.DirectNDArray;
+import net.imglib2.Interval;
+import net.imglib2.util.Intervals;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Shares staged inputs between blocks of loaders that read the same source, e.g. loaders of several outputs that are
+ * all computed from the same raw image with the same halo (see {@link PythonCacheLoader#withStagingCache(StagingCache)}).
+ * An input is copied once and passed to all blocks that request the same interval of the same source while it is in
+ * use, or while it is among the most recently used inputs that fit into {@code maxBytes}. Inputs in use are never
+ * evicted, i.e. the cache can temporarily hold more than {@code maxBytes}. Shared inputs are read-only in Python.
+ */
+public class StagingCache {
+
+	/**
+	 * Input that is shared through the cache. {@link #release() Release} it once Python does not use it anymore.
+	 */
+	static class SharedNDArray extends DirectNDArray<Buffer> {
+		private final StagingCache cache;
+		private final Entry entry;
+		private final boolean wasStaged;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private SharedNDArray(final StagingCache cache, final Entry entry, final DirectNDArray<?> array, final boolean wasStaged) {
+			super(array.getData(), array.isUnsigned(), array.getDimensions());
+			this.cache = cache;
+			this.entry = entry;
+			this.wasStaged = wasStaged;
+		}
+
+		/**
+		 * @return {@code true} if this request staged the input, {@code false} if it was shared
+		 */
+		boolean wasStaged() {
+			return wasStaged;
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true))
+				cache.release(entry);
+		}
+	}
+
+	private static class Key {
+		private final Object source;
+		private final long[] min;
+		private final long[] max;
+
+		private Key(final Object source, final Interval interval) {
+			this.source = source;
+			this.min = Intervals.minAsLongArray(interval);
+			this.max = Intervals.maxAsLongArray(interval);
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof Key))
+				return false;
+			final Key that = (Key) other;
+			return source.equals(that.source) && Arrays.equals(min, that.min) && Arrays.equals(max, that.max);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * source.hashCode() + Arrays.hashCode(min)) + Arrays.hashCode(max);
+		}
+	}
+
+	private static class Entry {
+		private final CompletableFuture<DirectNDArray<?>> array = new CompletableFuture<>();
+		private int refCount = 1;
+		private long numBytes = 0;
+	}
+
+	private final long maxBytes;
+
+	// access order, i.e. least recently used first
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long numBytes = 0;
+	private long numHits = 0;
+	private long numMisses = 0;
+
+	/**
+	 * @param maxBytes maximum size of the inputs that are kept when no block uses them
+	 */
+	public StagingCache(final long maxBytes) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("Maximum size must not be negative but got " + maxBytes);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Get the input for {@code interval} of {@code source} and stage it with {@code stage} on the calling thread if
+	 * it is not cached. Concurrent requests for the same input wait for the thread that stages it. The returned
+	 * array must be {@link SharedNDArray#release() released}.
+	 *
+	 * @param source identifies the source, e.g. the {@code RandomAccessible} that is copied, and thereby the type of
+	 *               the input
+	 * @param stage copies the input into buffers that are not drawn from a buffer pool
+	 */
+	SharedNDArray acquire(final Object source, final Interval interval, final Supplier<? extends DirectNDArray<?>> stage) {
+		final Key key = new Key(source, interval);
+		final Entry entry;
+		final boolean isNew;
+		synchronized (this) {
+			final Entry cached = entries.get(key);
+			isNew = cached == null;
+			if (isNew) {
+				entry = new Entry();
+				entries.put(key, entry);
+				++numMisses;
+			} else {
+				entry = cached;
+				++entry.refCount;
+				++numHits;
+			}
+		}
+
+		if (isNew) {
+			final DirectNDArray<?> array;
+			try {
+				array = stage.get();
+			} catch (final RuntimeException | Error e) {
+				synchronized (this) {
+					entries.remove(key, entry);
+				}
+				entry.array.completeExceptionally(e);
+				throw e;
+			}
+			synchronized (this) {
+				entry.numBytes = Buffers.numBytes(array.getData());
+				numBytes += entry.numBytes;
+			}
+			entry.array.complete(array);
+			return new SharedNDArray(this, entry, array, true);
+		}
+
+		try {
+			return new SharedNDArray(this, entry, entry.array.join(), false);
+		} catch (final CompletionException e) {
+			release(entry);
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	private synchronized void release(final Entry entry) {
+		if (--entry.refCount == 0)
+			evict();
+	}
+
+	/**
+	 * Drop the least recently used inputs that are not in use until the size is within {@code maxBytes}.
+	 */
+	private void evict() {
+		final Iterator<Entry> it = entries.values().iterator();
+		while (numBytes > maxBytes && it.hasNext()) {
+			final Entry entry = it.next();
+			if (entry.refCount == 0) {
+				it.remove();
+				numBytes -= entry.numBytes;
+			}
+		}
+	}
+
+	/**
+	 * @return size of all cached inputs, including inputs in use
+	 */
+	public synchronized long getNumBytes() {
+		return numBytes;
+	}
+
+	/**
+	 * @return number of requests that shared an input that was already cached or staged by another request
+	 */
+	public synchronized long getNumHits() {
+		return numHits;
+	}
+
+	/**
+	 * @return number of requests that staged an input
+	 */
+	public synchronized long getNumMisses() {
+		return numMisses;
+	}
+
+	/**
+	 * Drop all inputs that are not in use.
+	 */
+	public synchronized void clear() {
+		entries.values().removeIf(entry -> {
+			if (entry.refCount > 0)
+				return false;
+			numBytes -= entry.numBytes;
+			return true;
+		});
+	}
+}
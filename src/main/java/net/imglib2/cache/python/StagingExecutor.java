@@ -0,0 +1,94 @@
+package net.imglib2.cache.python;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the copies that stage inputs for Python in parallel. Each copy is split into up to {@link #getParallelism()}
+ * chunks. The calling thread executes one chunk itself and only waits for the others, i.e. tasks executed by the
+ * {@link ExecutorService} never block on other tasks and any number of threads can stage inputs concurrently.
+ */
+public class StagingExecutor implements AutoCloseable {
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	private final ExecutorService executor;
+	private final int parallelism;
+
+	/**
+	 * @param executor executes all but one chunk of each copy
+	 * @param parallelism maximum number of chunks per copy
+	 */
+	public StagingExecutor(final ExecutorService executor, final int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be positive but got " + parallelism);
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Create a {@link StagingExecutor} with its own pool of {@code numThreads} daemon threads.
+	 */
+	public StagingExecutor(final int numThreads) {
+		this(Executors.newFixedThreadPool(numThreads, r -> {
+			final Thread thread = new Thread(r, "python-staging-" + THREAD_COUNT.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}), numThreads);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Run all {@code chunks} and wait until all of them are done. The first chunk is executed on the calling thread.
+	 */
+	void invokeAll(final List<? extends Runnable> chunks) {
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int i = 1; i < chunks.size(); ++i)
+			futures.add(executor.submit(chunks.get(i)));
+		RuntimeException exception = null;
+		try {
+			if (!chunks.isEmpty())
+				chunks.get(0).run();
+		} catch (final RuntimeException e) {
+			exception = e;
+		}
+		boolean isInterrupted = false;
+		for (final Future<?> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (final InterruptedException e) {
+					// chunks write into buffers owned by the caller: never return before they are done
+					isInterrupted = true;
+				} catch (final ExecutionException e) {
+					if (exception == null)
+						exception = e.getCause() instanceof RuntimeException
+								? (RuntimeException) e.getCause()
+								: new RuntimeException(e.getCause());
+					break;
+				}
+			}
+		}
+		if (isInterrupted)
+			Thread.currentThread().interrupt();
+		if (exception != null)
+			throw exception;
+	}
+
+	/**
+	 * Shut down the underlying {@link ExecutorService}.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
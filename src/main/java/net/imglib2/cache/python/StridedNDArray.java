@@ -0,0 +1,158 @@
+package net.imglib2.cache.python;
+
+import jep.DirectNDArray;
+
+import java.nio.Buffer;
+
+/**
+ * Strided view into a direct buffer, e.g. a hyperslice of an image, that is passed to Python without copying. The
+ * array itself holds the whole buffer as a flat array, so that Python references the buffer and not a slice of it
+ * (pooled buffers are recycled once the buffer is unreachable, see
+ * {@link DirectBufferPool#recycleWhenUnreachable(Object, java.nio.ByteBuffer)}). Python turns it into a read-only
+ * {@code ndarray} of {@link #getShape() shape} and {@link #getStrides() strides}, starting at {@link #getOffset()
+ * offset}, through {@code numpy.lib.stride_tricks.as_strided} (see {@code _make_block}). Copies of inputs that cannot
+ * be passed as views are wrapped with {@link #ofCopy(DirectNDArray)}, so that they are read-only in Python as well.
+ */
+class StridedNDArray<B extends Buffer> extends DirectNDArray<B> {
+
+	@SuppressWarnings("unused")
+	private final Object owner;
+	private final int offset;
+	private final int[] shape;
+	private final long[] strides;
+	private final boolean isCopy;
+
+	/**
+	 * @param storage buffer that holds the view
+	 * @param offset position of the first element of the view in {@code storage}
+	 * @param owner kept reachable while the array is in use, e.g. a pooled cell access
+	 * @param shape shape of the view in numpy (reversed) order
+	 * @param strides strides of the view in elements, in numpy (reversed) order
+	 */
+	StridedNDArray(final B storage, final int offset, final Object owner, final int[] shape, final long[] strides) {
+		this(storage, offset, owner, shape, strides, false);
+	}
+
+	private StridedNDArray(final B storage, final int offset, final Object owner, final int[] shape, final long[] strides, final boolean isCopy) {
+		super(storage, storage.capacity());
+		this.owner = owner;
+		this.offset = offset;
+		this.shape = shape;
+		this.strides = strides;
+		this.isCopy = isCopy;
+	}
+
+	/**
+	 * @return the contiguous {@code copy} as a view of its whole buffer
+	 */
+	static <B extends Buffer> StridedNDArray<B> ofCopy(final DirectNDArray<B> copy) {
+		final int[] shape = copy.getDimensions();
+		return new StridedNDArray<>(copy.getData(), 0, null, shape, contiguousStrides(shape), true);
+	}
+
+	/**
+	 * @return strides in elements of a contiguous array of {@code shape} in C order
+	 */
+	static long[] contiguousStrides(final int[] shape) {
+		final long[] strides = new long[shape.length];
+		for (int d = shape.length - 1; d >= 0; --d)
+			strides[d] = d == shape.length - 1 ? 1 : strides[d + 1] * shape[d + 1];
+		return strides;
+	}
+
+	/**
+	 * @return {@code true} if this is a copy (see {@link #ofCopy(DirectNDArray)}), {@code false} if it is a view
+	 */
+	boolean isCopy() {
+		return isCopy;
+	}
+
+	int getOffset() {
+		return offset;
+	}
+
+	int[] getShape() {
+		return shape;
+	}
+
+	long[] getStrides() {
+		return strides;
+	}
+
+	long numElements() {
+		long n = 1;
+		for (final int s : shape)
+			n *= s;
+		return n;
+	}
+
+	/**
+	 * @return shape and strides for {@code _make_block}
+	 */
+	Object[] viewArguments() {
+		return new Object[] {shape, strides, offset};
+	}
+
+	/**
+	 * @return shape and strides for {@code _make_block} if {@code array} must be read-only in Python, i.e. if it is
+	 * a {@link StridedNDArray} or an input that is shared through a {@link StagingCache}, {@code null} otherwise
+	 */
+	static Object[] viewArguments(final DirectNDArray<?> array) {
+		if (array instanceof StridedNDArray)
+			return ((StridedNDArray<?>) array).viewArguments();
+		if (array instanceof StagingCache.SharedNDArray)
+			return new Object[] {array.getDimensions(), contiguousStrides(array.getDimensions()), 0};
+		return null;
+	}
+
+	/**
+	 * @return a copy of the view as a contiguous array, e.g. for Python processes that cannot access the buffer
+	 */
+	DirectNDArray<Buffer> toContiguous() {
+		if (isCopy)
+			return new DirectNDArray<>(getData(), shape);
+		final Buffer target = Buffers.allocateDirect(getData(), (int) numElements());
+		copyTo(target);
+		return new DirectNDArray<>(target, shape);
+	}
+
+	/**
+	 * Copy the view into {@code target} in C order, i.e. as a contiguous array of {@link #getShape() shape}.
+	 */
+	void copyTo(final Buffer target) {
+		final int n = shape.length;
+		for (final int s : shape)
+			if (s == 0)
+				return;
+		final Buffer source = getData();
+		final int rowLength = n == 0 ? 1 : shape[n - 1];
+		final boolean isRowContiguous = n == 0 || strides[n - 1] == 1;
+		final int[] position = new int[n];
+		int targetOffset = 0;
+		do {
+			long sourceOffset = offset;
+			for (int d = 0; d < n - 1; ++d)
+				sourceOffset += position[d] * strides[d];
+			if (isRowContiguous)
+				Buffers.copy(source, (int) sourceOffset, target, targetOffset, rowLength);
+			else
+				for (int i = 0; i < rowLength; ++i)
+					Buffers.copy(source, (int) (sourceOffset + i * strides[n - 1]), target, targetOffset + i, 1);
+			targetOffset += rowLength;
+		} while (nextRow(position));
+	}
+
+	/**
+	 * Advance {@code position} to the next row, i.e. in all but the last (contiguous in C order) dimension.
+	 */
+	private boolean nextRow(final int[] position) {
+		for (int d = shape.length - 2; d >= 0; --d) {
+			if (position[d] < shape[d] - 1) {
+				++position[d];
+				return true;
+			}
+			position[d] = 0;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,16 @@
+package net.imglib2.cache.python;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Thrown for a task that was dropped because no worker started it within the timeout of its submission (see
+ * {@link PythonWorkerQueue#submit(PythonTask, int, boolean, long, java.util.concurrent.TimeUnit)}). Unlike a
+ * {@link java.util.concurrent.TimeoutException} of {@link PythonFuture#get(long, java.util.concurrent.TimeUnit)}, the
+ * task will never be executed.
+ */
+public class TaskExpiredException extends CancellationException {
+
+	public TaskExpiredException(final String message) {
+		super(message);
+	}
+}
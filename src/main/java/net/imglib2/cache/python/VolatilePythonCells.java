@@ -0,0 +1,193 @@
+package net.imglib2.cache.python;
+
+import net.imglib2.cache.LoaderCache;
+import net.imglib2.cache.img.VolatileCachedCellImg;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.img.basictypeaccess.nio.BufferAccess;
+import net.imglib2.img.cell.Cell;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cells of a {@link VolatileCachedCellImg} that are computed asynchronously by a {@link PythonCacheLoader}. Requests
+ * for missing cells are put into a {@link BlockingFetchQueues} with the priority of the {@link CacheHints}. The fetcher
+ * thread that takes a request only stages the inputs and submits the block. The cell is added to the cache on
+ * completion, without blocking the fetcher thread while Python computes it. Blocks are submitted to the worker queue
+ * with the same priority.
+ * <p>
+ * A block that was not accessed during the previous frame of {@code queue} (see
+ * {@link BlockingFetchQueues#getCurrentFrame()}) is cancelled if Python did not start it yet, e.g. when BigDataViewer
+ * moved on to another region.
+ * <p>
+ * Cells for which the Python code failed are not cached. They stay invalid and are requested again only after a delay
+ * that doubles with each consecutive failure of the cell, from {@link #MIN_RETRY_DELAY_NANOS} up to
+ * {@link #MAX_RETRY_DELAY_NANOS}, i.e. a persistent failure does not keep the workers busy.
+ */
+class VolatilePythonCells<A extends BufferAccess<A>> implements VolatileCachedCellImg.Get<Cell<A>> {
+
+	static final long MIN_RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+	static final long MAX_RETRY_DELAY_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+	/**
+	 * Consecutive failures of a cell and the earliest time at which it is requested again.
+	 */
+	private static class Failure {
+		private final int numFailures;
+		private final long retryTime;
+
+		private Failure(final Failure previous) {
+			this.numFailures = previous == null ? 1 : previous.numFailures + 1;
+			final long delay = MIN_RETRY_DELAY_NANOS << Math.min(numFailures - 1, 30);
+			this.retryTime = System.nanoTime() + (delay > 0 ? Math.min(delay, MAX_RETRY_DELAY_NANOS) : MAX_RETRY_DELAY_NANOS);
+		}
+
+		private boolean isBackingOff() {
+			return System.nanoTime() - retryTime < 0;
+		}
+	}
+
+	private class Request implements Callable<Void> {
+		private final Long key;
+		private final Cell<A> invalidCell;
+		private long enqueueFrame = Long.MIN_VALUE;
+		private boolean isStarted = false;
+		private CacheHints hints;
+		private volatile long accessFrame;
+		private volatile CompletableFuture<Cell<A>> future = null;
+
+		private Request(final Long key) {
+			this.key = key;
+			this.invalidCell = loader.createInvalidCell(key);
+			this.accessFrame = queue.getCurrentFrame();
+		}
+
+		private synchronized void enqueue(final CacheHints hints) {
+			// requests that were not started are dropped from the queue when a new frame starts, e.g. in BigDataViewer
+			final long frame = queue.getCurrentFrame();
+			accessFrame = frame;
+			if (isStarted || enqueueFrame >= frame)
+				return;
+			enqueueFrame = frame;
+			this.hints = hints;
+			queue.put(this, hints.getQueuePriority(), hints.isEnqueuToFront());
+		}
+
+		/**
+		 * @return the hints of the most recent enqueue or {@code null} if this request was started already
+		 */
+		private synchronized CacheHints start() {
+			if (isStarted)
+				return null;
+			isStarted = true;
+			return hints;
+		}
+
+		@Override
+		public Void call() {
+			final CacheHints hints = start();
+			if (hints == null)
+				return null;
+			if (cache.getIfPresent(key) != null) {
+				requests.remove(key, this);
+				return null;
+			}
+			try {
+				// keep the priority of the fetch request in the worker queue
+				future = loader.getAsync(key, hints.getQueuePriority(), hints.isEnqueuToFront());
+				future.whenComplete((cell, e) -> {
+					try {
+						if (cell != null && cell.getData().isValid()) {
+							failures.remove(key);
+							cache.get(key, k -> cell);
+						} else if (!(e instanceof CancellationException)) {
+							// failed cells are requested again after a delay
+							failures.compute(key, (k, previous) -> new Failure(previous));
+						}
+					} catch (final ExecutionException ex) {
+						ex.printStackTrace();
+					} finally {
+						requests.remove(key, this);
+					}
+				});
+			} catch (final RuntimeException e) {
+				requests.remove(key, this);
+				throw e;
+			}
+			return null;
+		}
+
+		private void cancel() {
+			final CompletableFuture<Cell<A>> future = this.future;
+			if (future != null)
+				future.cancel(false);
+		}
+	}
+
+	private final PythonCacheLoader<?, A> loader;
+	private final LoaderCache<Long, Cell<A>> cache;
+	private final BlockingFetchQueues<Callable<?>> queue;
+	private final ConcurrentHashMap<Long, Request> requests = new ConcurrentHashMap<>();
+	private final AtomicLong cancelledFrame = new AtomicLong(Long.MIN_VALUE);
+	private final ConcurrentHashMap<Long, Failure> failures = new ConcurrentHashMap<>();
+
+	VolatilePythonCells(
+			final PythonCacheLoader<?, A> loader,
+			final LoaderCache<Long, Cell<A>> cache,
+			final BlockingFetchQueues<Callable<?>> queue) {
+		this.loader = loader;
+		this.cache = cache;
+		this.queue = queue;
+	}
+
+	@Override
+	public Cell<A> get(final long index, final CacheHints hints) {
+		final Long key = index;
+		final Cell<A> cell = cache.getIfPresent(key);
+		if (cell != null)
+			return cell;
+
+		switch (hints.getLoadingStrategy()) {
+			case BLOCKING:
+				try {
+					return cache.get(key, loader);
+				} catch (final ExecutionException e) {
+					throw new RuntimeException(e);
+				}
+			case DONTLOAD: {
+				final Request request = requests.get(key);
+				return request == null ? loader.createInvalidCell(key) : request.invalidCell;
+			}
+			case VOLATILE:
+			case BUDGETED:
+			default: {
+				cancelStaleRequests();
+				final Failure failure = failures.get(key);
+				if (failure != null && failure.isBackingOff())
+					return loader.createInvalidCell(key);
+				final Request request = requests.computeIfAbsent(key, Request::new);
+				request.enqueue(hints);
+				return request.invalidCell;
+			}
+		}
+	}
+
+	/**
+	 * Once per frame, cancel all requests that were not accessed during the previous frame.
+	 */
+	private void cancelStaleRequests() {
+		final long frame = queue.getCurrentFrame();
+		final long cancelled = cancelledFrame.get();
+		if (cancelled >= frame || !cancelledFrame.compareAndSet(cancelled, frame))
+			return;
+		for (final Request request : requests.values())
+			if (request.accessFrame < frame - 1)
+				request.cancel();
+	}
+}
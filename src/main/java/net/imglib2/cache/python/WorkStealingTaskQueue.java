@@ -0,0 +1,150 @@
+package net.imglib2.cache.python;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Task queue with a {@link PriorityTaskQueue} per worker and a shared one for elements without a preferred worker.
+ * Each worker takes the most urgent element of all queues and prefers its own queue, then the shared queue, among
+ * elements of equal priority, i.e. it steals from the queues of other workers only if they hold more urgent elements
+ * or if its own and the shared queue are empty. Producers of tasks for different workers do not contend for a single
+ * lock.
+ * <p>
+ * Each queued element is backed by a permit of a {@link Semaphore}: consumers acquire a permit before they claim an
+ * element, i.e. a consumer with a permit always finds an element in one of the queues.
+ */
+class WorkStealingTaskQueue<E> {
+
+	/**
+	 * Worker index for elements without a preferred worker.
+	 */
+	static final int ANY_WORKER = -1;
+
+	private final PriorityTaskQueue<E> shared = new PriorityTaskQueue<>();
+	private final List<PriorityTaskQueue<E>> local = new ArrayList<>();
+	private final Semaphore available = new Semaphore(0);
+
+	WorkStealingTaskQueue(final int numWorkers) {
+		for (int w = 0; w < numWorkers; ++w)
+			local.add(new PriorityTaskQueue<>());
+	}
+
+	int numWorkers() {
+		return local.size();
+	}
+
+	/**
+	 * @param worker preferred worker or {@link #ANY_WORKER}
+	 */
+	void put(final E element, final int priority, final boolean enqueueToFront, final int worker) {
+		queueOf(worker).put(element, priority, enqueueToFront);
+		available.release();
+	}
+
+	E take(final int worker) throws InterruptedException {
+		available.acquire();
+		return claim(worker);
+	}
+
+	/**
+	 * @return the next element for {@code worker} or {@code null} if none became available within {@code timeout}
+	 */
+	E poll(final int worker, final long timeout, final TimeUnit unit) throws InterruptedException {
+		if (!available.tryAcquire(timeout, unit))
+			return null;
+		return claim(worker);
+	}
+
+	/**
+	 * Remove and return the first element that matches {@code filter}, searching the queue of {@code worker} first,
+	 * then the shared queue, then the queues of all other workers.
+	 */
+	E removeFirst(final int worker, final Predicate<? super E> filter) {
+		if (!available.tryAcquire())
+			return null;
+		final E element = queueOf(worker).removeFirst(filter);
+		if (element != null)
+			return element;
+		final E other = worker == ANY_WORKER ? null : shared.removeFirst(filter);
+		if (other != null)
+			return other;
+		for (final PriorityTaskQueue<E> queue : local) {
+			final E stolen = queue.removeFirst(filter);
+			if (stolen != null)
+				return stolen;
+		}
+		available.release();
+		return null;
+	}
+
+	boolean remove(final E element) {
+		return removeFirst(ANY_WORKER, e -> e == element) != null;
+	}
+
+	/**
+	 * Remove all elements that are not claimed by a consumer already.
+	 */
+	List<E> drain() {
+		final List<E> elements = new ArrayList<>();
+		while (available.tryAcquire())
+			elements.add(claim(ANY_WORKER));
+		return elements;
+	}
+
+	int size() {
+		int size = shared.size();
+		for (final PriorityTaskQueue<E> queue : local)
+			size += queue.size();
+		return size;
+	}
+
+	private PriorityTaskQueue<E> queueOf(final int worker) {
+		return worker == ANY_WORKER ? shared : local.get(worker);
+	}
+
+	/**
+	 * Poll the next element for {@code worker}. Requires a permit, i.e. there is at least one element that is not
+	 * claimed by another consumer.
+	 */
+	private E claim(final int worker) {
+		while (true) {
+			final E element = pollNext(worker);
+			if (element != null)
+				return element;
+			// another consumer polled the element that this one compared, try again
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Poll the most urgent element of all queues. Among elements with equal priority, the own queue of {@code worker}
+	 * goes first, then the shared queue, then the queues of other workers.
+	 */
+	private E pollNext(final int worker) {
+		final PriorityTaskQueue<E> own = queueOf(worker);
+		PriorityTaskQueue<E> best = null;
+		Integer bestPriority = null;
+		for (final PriorityTaskQueue<E> queue : candidates(own)) {
+			final Integer priority = queue.peekPriority();
+			if (priority != null && (bestPriority == null || priority < bestPriority)) {
+				best = queue;
+				bestPriority = priority;
+			}
+		}
+		return best == null ? null : best.poll();
+	}
+
+	private List<PriorityTaskQueue<E>> candidates(final PriorityTaskQueue<E> own) {
+		final List<PriorityTaskQueue<E>> candidates = new ArrayList<>(local.size() + 1);
+		candidates.add(own);
+		if (own != shared)
+			candidates.add(shared);
+		for (final PriorityTaskQueue<E> queue : local)
+			if (queue != own)
+				candidates.add(queue);
+		return candidates;
+	}
+}
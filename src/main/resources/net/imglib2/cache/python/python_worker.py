@@ -0,0 +1,131 @@
+# Worker process for PythonProcessRuntime.
+#
+# Block data is exchanged through a memory-mapped file (under /dev/shm, if available) and all other information
+# through a binary protocol (big endian) on stdin/stdout:
+#
+#   handshake: shared memory path (string), init code (string) -> status
+#   task:      message type (int), mapped size (long), code key (long), code (string), number of blocks (int), blocks
+#              -> status
+#   exit:      message type (int)
+#
+# A block consists of the output array, the number of inputs (int), the input arrays, the number of additional outputs
+# (int), the name (string) and array of each additional output, index (long), min (longs), max (longs), dim (ints),
+# lower halo (ints), and upper halo (ints). Arrays are passed as numpy dtype (string), offset
+# into shared memory (long), and shape (ints). Strings are passed as length (int) followed by UTF-8 bytes, sequences
+# as length (int) followed by their elements. Status is OK (int) or ERROR (int) followed by a traceback (string).
+
+import mmap
+import struct
+import sys
+import traceback
+
+import numpy as np
+
+BLOCK, BATCH, EXIT = 1, 2, 3
+OK, ERROR = 0, 1
+
+
+class Channel:
+
+    def __init__(self, source, sink):
+        self.source = source
+        self.sink = sink
+
+    def read(self, n):
+        data = self.source.read(n)
+        if len(data) != n:
+            raise EOFError('Connection to Java closed.')
+        return data
+
+    def read_int(self):
+        return struct.unpack('>i', self.read(4))[0]
+
+    def read_long(self):
+        return struct.unpack('>q', self.read(8))[0]
+
+    def read_ints(self):
+        n = self.read_int()
+        return struct.unpack(f'>{n}i', self.read(4 * n))
+
+    def read_longs(self):
+        n = self.read_int()
+        return struct.unpack(f'>{n}q', self.read(8 * n))
+
+    def read_string(self):
+        return self.read(self.read_int()).decode('utf-8')
+
+    def read_array(self, memory):
+        dtype = np.dtype(self.read_string())
+        offset = self.read_long()
+        shape = self.read_ints()
+        return np.ndarray(shape, dtype=dtype, buffer=memory, offset=offset)
+
+    def read_block(self, memory):
+        data = self.read_array(memory)
+        inputs = [self.read_array(memory) for _ in range(self.read_int())]
+        outputs = [(self.read_string(), self.read_array(memory)) for _ in range(self.read_int())]
+        index = self.read_long()
+        return [data, inputs, index, self.read_longs(), self.read_longs(), self.read_ints(), self.read_ints(), self.read_ints(),
+                None, False, [name for name, _ in outputs], [array for _, array in outputs]]
+
+    def write_status(self, status, message=None):
+        self.sink.write(struct.pack('>i', status))
+        if message is not None:
+            data = message.encode('utf-8')
+            self.sink.write(struct.pack('>i', len(data)))
+            self.sink.write(data)
+        self.sink.flush()
+
+
+def remap(file, memory, size):
+    if memory is not None:
+        try:
+            memory.close()
+        except BufferError:
+            # arrays that are still referenced keep the old mapping alive
+            pass
+    return mmap.mmap(file.fileno(), size)
+
+
+def main():
+    channel = Channel(sys.stdin.buffer, sys.stdout.buffer)
+    # keep the protocol stream free of any output of the user code
+    sys.stdout = sys.stderr
+
+    path = channel.read_string()
+    init = channel.read_string()
+    namespace = {'__name__': '__main__'}
+    try:
+        exec(compile(init, '<init>', 'exec'), namespace)
+    except BaseException:
+        channel.write_status(ERROR, traceback.format_exc())
+        return
+    channel.write_status(OK)
+
+    with open(path, 'r+b') as file:
+        memory, size = None, 0
+        while True:
+            message = channel.read_int()
+            if message == EXIT:
+                break
+            mapped_size = channel.read_long()
+            if mapped_size != size:
+                memory, size = remap(file, memory, mapped_size), mapped_size
+            key = channel.read_long()
+            key = None if key < 0 else key
+            code = channel.read_string()
+            blocks = [channel.read_block(memory) for _ in range(channel.read_int())]
+            try:
+                if message == BLOCK:
+                    namespace['_run_block'](key, code, *blocks[0])
+                else:
+                    namespace['_run_batch'](key, code, blocks)
+                status, error = OK, None
+            except BaseException:
+                status, error = ERROR, traceback.format_exc()
+            blocks = None
+            channel.write_status(status, error)
+
+
+if __name__ == '__main__':
+    main()
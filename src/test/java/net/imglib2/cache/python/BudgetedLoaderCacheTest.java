@@ -0,0 +1,102 @@
+package net.imglib2.cache.python;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BudgetedLoaderCacheTest {
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws ExecutionException {
+		final NativeMemoryBudget budget = new NativeMemoryBudget(30);
+		final List<String> evicted = new ArrayList<>();
+		final BudgetedLoaderCache<Integer, String> cache = new BudgetedLoaderCache<>(budget, String::length, evicted::add);
+		cache.get(1, k -> "aaaaaaaaaa");
+		cache.get(2, k -> "bbbbbbbbbb");
+		cache.get(3, k -> "cccccccccc");
+		Assert.assertEquals(30, budget.getUsedBytes());
+		// access makes 1 the most recently used
+		Assert.assertEquals("aaaaaaaaaa", cache.getIfPresent(1));
+		cache.get(4, k -> "dddddddddd");
+		Assert.assertEquals(Arrays.asList("bbbbbbbbbb"), evicted);
+		Assert.assertNull(cache.getIfPresent(2));
+		Assert.assertEquals(30, budget.getUsedBytes());
+
+		cache.invalidateAll();
+		Assert.assertEquals(0, budget.getUsedBytes());
+		Assert.assertEquals(4, evicted.size());
+	}
+
+	@Test
+	public void testSharedBudget() throws ExecutionException {
+		final NativeMemoryBudget budget = new NativeMemoryBudget(20);
+		final BudgetedLoaderCache<Integer, String> cache1 = new BudgetedLoaderCache<>(budget, String::length);
+		final BudgetedLoaderCache<Integer, String> cache2 = new BudgetedLoaderCache<>(budget, String::length);
+		cache1.get(1, k -> "aaaaaaaaaa");
+		cache2.get(1, k -> "bbbbbbbbbb");
+		cache2.get(2, k -> "cccccccccc");
+		// the least recently used entry of all caches is evicted
+		Assert.assertNull(cache1.getIfPresent(1));
+		Assert.assertEquals("bbbbbbbbbb", cache2.getIfPresent(1));
+		Assert.assertEquals(20, budget.getUsedBytes());
+	}
+
+	@Test
+	public void testFailedLoad() {
+		final NativeMemoryBudget budget = new NativeMemoryBudget(20);
+		final BudgetedLoaderCache<Integer, String> cache = new BudgetedLoaderCache<>(budget, String::length);
+		try {
+			cache.get(1, k -> {
+				throw new IllegalStateException();
+			});
+			Assert.fail();
+		} catch (final ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		Assert.assertNull(cache.getIfPresent(1));
+		Assert.assertEquals(0, budget.getUsedBytes());
+	}
+
+	@Test
+	public void testInvalidateWhileLoading() throws Exception {
+		final NativeMemoryBudget budget = new NativeMemoryBudget(100);
+		final List<String> evicted = new ArrayList<>();
+		final BudgetedLoaderCache<Integer, String> cache = new BudgetedLoaderCache<>(budget, String::length, evicted::add);
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			for (int i = 0; i < 1000; ++i) {
+				final int key = i;
+				final CountDownLatch loading = new CountDownLatch(1);
+				final CountDownLatch release = new CountDownLatch(1);
+				final Future<String> loaded = executor.submit(() -> cache.get(key, k -> {
+					loading.countDown();
+					release.await();
+					return "aaaaaaaaaa";
+				}));
+				loading.await();
+				// invalidate as soon as a concurrent request returns the value
+				final Future<?> invalidated = executor.submit(() -> {
+					cache.get(key, k -> "bbbbbbbbbb");
+					cache.invalidate(key);
+					return null;
+				});
+				release.countDown();
+				Assert.assertEquals("aaaaaaaaaa", loaded.get());
+				invalidated.get();
+				Assert.assertNull(cache.getIfPresent(key));
+				Assert.assertEquals(0, budget.getUsedBytes());
+			}
+			Assert.assertEquals(1000, evicted.size());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package net.imglib2.cache.python;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+public class DirectBufferPoolTest {
+
+	@Test
+	public void testRecycle() {
+		final DirectBufferPool pool = new DirectBufferPool(64);
+		final ByteBuffer buffer = pool.acquire(16);
+		Assert.assertTrue(buffer.isDirect());
+		Assert.assertEquals(16, buffer.capacity());
+		buffer.putLong(0, 42);
+
+		pool.recycle(buffer);
+		Assert.assertEquals(16, pool.getPooledBytes());
+		// returning a buffer twice must not duplicate it in the pool
+		pool.recycle(buffer);
+		Assert.assertEquals(16, pool.getPooledBytes());
+
+		final ByteBuffer recycled = pool.acquire(16);
+		Assert.assertSame(buffer, recycled);
+		Assert.assertEquals(0, recycled.getLong(0));
+		Assert.assertEquals(0, pool.getPooledBytes());
+
+		// different size is not served from the same bucket
+		Assert.assertNotSame(recycled, pool.acquire(8));
+	}
+
+	@Test
+	public void testTrackedViews() {
+		final DirectBufferPool pool = new DirectBufferPool(64);
+		final ByteBuffer buffer = pool.acquire(16);
+		final LongBuffer view = pool.track(buffer.asLongBuffer(), buffer);
+		// untracked buffers are ignored
+		pool.release(ByteBuffer.allocateDirect(16));
+		Assert.assertEquals(0, pool.getPooledBytes());
+		pool.release(view);
+		Assert.assertEquals(16, pool.getPooledBytes());
+	}
+
+	@Test
+	public void testRecycleNow() {
+		final DirectBufferPool pool = new DirectBufferPool(64);
+		final ByteBuffer buffer = pool.acquire(16);
+		final Object owner = new Object();
+		pool.recycleWhenUnreachable(owner, buffer);
+		Assert.assertFalse(pool.recycleNow(new Object()));
+		Assert.assertTrue(pool.recycleNow(owner));
+		Assert.assertEquals(16, pool.getPooledBytes());
+		// the lease is gone, i.e. the buffer is not returned a second time
+		Assert.assertFalse(pool.recycleNow(owner));
+		Assert.assertSame(buffer, pool.acquire(16));
+	}
+
+	@Test
+	public void testRecycleWhenStorageUnreachable() throws InterruptedException {
+		final DirectBufferPool pool = new DirectBufferPool(64);
+		final ByteBuffer buffer = pool.acquire(16);
+		LongBuffer storage = buffer.duplicate().asLongBuffer();
+		pool.recycleWhenUnreachable(storage, buffer);
+		// the storage outlives the access that held it, e.g. as an input of a running block
+		Object access = new Object[] {storage};
+		access = null;
+		for (int i = 0; i < 3; ++i)
+			System.gc();
+		Assert.assertEquals(0, pool.getPooledBytes());
+		storage.put(0, 42);
+
+		storage = null;
+		for (int i = 0; i < 100 && pool.getPooledBytes() == 0; ++i) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(16, pool.getPooledBytes());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOwnerIsNotBuffer() {
+		final DirectBufferPool pool = new DirectBufferPool(64);
+		final ByteBuffer buffer = pool.acquire(16);
+		pool.recycleWhenUnreachable(buffer, buffer);
+	}
+
+	@Test
+	public void testBounded() {
+		final DirectBufferPool pool = new DirectBufferPool(32);
+		final ByteBuffer buffer1 = pool.acquire(16);
+		final ByteBuffer buffer2 = pool.acquire(16);
+		final ByteBuffer buffer3 = pool.acquire(24);
+		final ByteBuffer buffer4 = pool.acquire(64);
+		pool.recycle(buffer1);
+		pool.recycle(buffer2);
+		Assert.assertEquals(32, pool.getPooledBytes());
+		// evicts buffers of other sizes to make room
+		pool.recycle(buffer3);
+		Assert.assertEquals(24, pool.getPooledBytes());
+		// buffers larger than the pool are never pooled
+		pool.recycle(buffer4);
+		Assert.assertEquals(24, pool.getPooledBytes());
+	}
+}
@@ -0,0 +1,57 @@
+package net.imglib2.cache.python;
+
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.integer.IntType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class DiskCellStoreTest {
+
+	@Test
+	public void testBigEndian() throws Exception {
+		final CellGrid grid = new CellGrid(new long[] {5, 2}, new int[] {3, 2});
+		final Path directory = Files.createTempDirectory("python-disk-cache");
+		final DiskCellStore store = new DiskCellStore(directory, grid, new IntType());
+		for (final ByteOrder order : new ByteOrder[] {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+			// cell 0 holds 3 * 2 and cell 1 holds 2 * 2 values
+			final long key = order == ByteOrder.LITTLE_ENDIAN ? 0 : 1;
+			final int numBytes = (key == 0 ? 6 : 4) * Integer.BYTES;
+			final ByteBuffer data = ByteBuffer.allocateDirect(6 * Integer.BYTES).order(order);
+			for (int i = 0; i < 6; ++i)
+				data.putInt(i * Integer.BYTES, 0x01020300 + i);
+			store.writeAsync(key, data, numBytes, data);
+		}
+		store.close();
+
+		// header: mode 0, number of dimensions, and cell dimensions, followed by big-endian data
+		final byte[] bytes = Files.readAllBytes(directory.resolve("0/0"));
+		Assert.assertEquals(2 + 2 + 2 * 4 + 6 * 4, bytes.length);
+		Assert.assertArrayEquals(new byte[] {0, 0, 0, 2, 0, 0, 0, 3, 0, 0, 0, 2}, Arrays.copyOf(bytes, 12));
+		Assert.assertArrayEquals(new byte[] {1, 2, 3, 0, 1, 2, 3, 1}, Arrays.copyOfRange(bytes, 12, 20));
+		Assert.assertArrayEquals(new byte[] {1, 2, 3, 0, 1, 2, 3, 1}, Arrays.copyOfRange(Files.readAllBytes(directory.resolve("1/0")), 12, 20));
+
+		final ByteBuffer read = store.read(0, 6 * Integer.BYTES);
+		Assert.assertEquals(ByteOrder.BIG_ENDIAN, read.order());
+		for (int i = 0; i < 6; ++i)
+			Assert.assertEquals(0x01020300 + i, read.getInt(i * Integer.BYTES));
+		// cell 1 holds fewer values
+		Assert.assertNull(store.read(1, 6 * Integer.BYTES));
+	}
+
+	@Test
+	public void testCloseDropsLaterWrites() throws Exception {
+		final CellGrid grid = new CellGrid(new long[] {2}, new int[] {2});
+		final Path directory = Files.createTempDirectory("python-disk-cache");
+		final DiskCellStore store = new DiskCellStore(directory, grid, new IntType());
+		store.close();
+		final ByteBuffer data = ByteBuffer.allocateDirect(2 * Integer.BYTES);
+		store.writeAsync(0, data, 2 * Integer.BYTES, data);
+		Assert.assertFalse(Files.exists(directory.resolve("0")));
+	}
+}
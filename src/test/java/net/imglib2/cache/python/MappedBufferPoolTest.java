@@ -0,0 +1,43 @@
+package net.imglib2.cache.python;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public class MappedBufferPoolTest {
+
+	@Test
+	public void testSlabs() throws IOException {
+		final MappedBufferPool pool = new MappedBufferPool(Files.createTempDirectory("mapped-buffer-pool"), 256);
+		final ByteBuffer buffer1 = pool.acquire(100);
+		final ByteBuffer buffer2 = pool.acquire(100);
+		Assert.assertTrue(buffer1.isDirect());
+		Assert.assertEquals(100, buffer1.capacity());
+		Assert.assertEquals(256, pool.getMappedBytes());
+		// slices of the same slab do not overlap
+		buffer1.put(99, (byte) 1);
+		Assert.assertEquals(0, buffer2.get(0));
+
+		// does not fit into the remainder of the slab
+		pool.acquire(100);
+		Assert.assertEquals(512, pool.getMappedBytes());
+		// larger than a slab
+		Assert.assertEquals(1000, pool.acquire(1000).capacity());
+		Assert.assertEquals(1512, pool.getMappedBytes());
+	}
+
+	@Test
+	public void testRecycle() throws IOException {
+		final MappedBufferPool pool = new MappedBufferPool(Files.createTempDirectory("mapped-buffer-pool"), 256);
+		final ByteBuffer buffer = pool.acquire(64);
+		buffer.putLong(0, 42);
+		pool.recycle(buffer);
+		final ByteBuffer recycled = pool.acquire(64);
+		Assert.assertSame(buffer, recycled);
+		Assert.assertEquals(0, recycled.getLong(0));
+		Assert.assertEquals(256, pool.getMappedBytes());
+	}
+}
@@ -0,0 +1,42 @@
+package net.imglib2.cache.python;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class PriorityTaskQueueTest {
+
+	@Test
+	public void testOrder() throws InterruptedException {
+		final PriorityTaskQueue<String> queue = new PriorityTaskQueue<>();
+		queue.put("background-1", 2, false);
+		queue.put("background-2", 2, false);
+		queue.put("visible-1", 0, true);
+		queue.put("visible-2", 0, true);
+		queue.put("other", 1, false);
+		Assert.assertEquals(5, queue.size());
+		Assert.assertEquals("visible-2", queue.take());
+		Assert.assertEquals("visible-1", queue.take());
+		Assert.assertEquals("other", queue.take());
+		Assert.assertEquals("background-1", queue.take());
+		Assert.assertEquals("background-2", queue.take());
+		Assert.assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testRemove() {
+		final PriorityTaskQueue<String> queue = new PriorityTaskQueue<>();
+		queue.put("a", 1, false);
+		queue.put("b", 0, false);
+		queue.put("c", 1, false);
+		Assert.assertEquals("a", queue.removeFirst(s -> !s.equals("b")));
+		Assert.assertTrue(queue.remove("c"));
+		Assert.assertFalse(queue.remove("c"));
+		Assert.assertEquals(1, queue.size());
+		Assert.assertEquals(Arrays.asList("b"), queue.drain());
+		Assert.assertEquals(0, queue.size());
+		Assert.assertEquals(Arrays.asList(), queue.drain());
+	}
+}
@@ -0,0 +1,146 @@
+package net.imglib2.cache.python;
+
+import net.imglib2.RandomAccessible;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.basictypeaccess.nio.BufferAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.NumericType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of {@link PythonCacheLoader#get(Long)} for a block that copies the center of its input, across types, block
+ * sizes, dimensionality, and halos. The input is a computed {@link CachedCellImg} on the same grid that is either
+ * passed as is (zero-copy without halo, stitched from cells with halo) or copied through
+ * {@link PythonCacheLoader.InputGenerator.ForRandomAccessible}. Output buffers are recycled after each call so that
+ * the results do not depend on the garbage collector. Writes a JSON report to
+ * {@code target/jmh-PythonCacheLoaderBenchmark.json} when run through {@link #main(String...)}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PythonCacheLoaderBenchmark {
+
+	@Param({"uint8", "int16", "float64"})
+	public String type;
+
+	@Param({"32", "64", "128"})
+	public int blockSize;
+
+	@Param({"2", "3"})
+	public int numDimensions;
+
+	@Param({"0", "8"})
+	public int halo;
+
+	@Param({"CachedCellImg", "RandomAccessible"})
+	public String input;
+
+	private PythonCacheLoaderQueue queue;
+	private DirectBufferPool pool;
+	private PythonCacheLoader<?, ?> loader;
+	private long numCells;
+	private long key = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		queue = new PythonCacheLoaderQueue(1);
+		pool = new DirectBufferPool(256L * 1024 * 1024);
+		switch (type) {
+			case "uint8":
+				setup(new UnsignedByteType());
+				break;
+			case "int16":
+				setup(new ShortType());
+				break;
+			case "float64":
+				setup(new DoubleType());
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown type: " + type);
+		}
+	}
+
+	private <T extends NativeType<T> & NumericType<T>> void setup(final T t) {
+		final long[] dimensions = new long[numDimensions];
+		final int[] cellDimensions = new int[numDimensions];
+		Arrays.fill(dimensions, 2 * blockSize);
+		Arrays.fill(cellDimensions, blockSize);
+		final CellGrid grid = new CellGrid(dimensions, cellDimensions);
+		numCells = Arrays.stream(grid.getGridDimensions()).reduce(1, (a, b) -> a * b);
+
+		final CachedCellImg<T, ? extends BufferAccess<?>> source = PythonCacheLoader
+				.fromRandomAccessibles(grid, queue, "block.data[...] = block.index", t)
+				.createCachedCellImg(numCells);
+		// compute all cells up front
+		source.getCells().forEach(Cell::getData);
+
+		// the interval view hides the cells, i.e. the input is copied
+		final RandomAccessible<T> extended = input.equals("CachedCellImg")
+				? Views.extendZero(source)
+				: Views.extendZero(Views.interval(source, source));
+		final int[] haloSize = new int[numDimensions];
+		Arrays.fill(haloSize, halo);
+		loader = PythonCacheLoader
+				.fromRandomAccessibles(
+						grid,
+						queue,
+						"block.data[...] = block.inputs[0][block.halo]",
+						t.createVariable(),
+						new Halo(haloSize, haloSize),
+						extended)
+				.withBufferPool(pool);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		queue.close();
+	}
+
+	@Benchmark
+	public Object get() {
+		final Cell<?> cell = loader.get(key++ % numCells);
+		pool.recycleNow(((BufferAccess<?>) cell.getData()).getCurrentStorageArray());
+		return cell;
+	}
+
+	/**
+	 * @param args JMH command line options, e.g. {@code -p numDimensions=3}
+	 */
+	public static void main(final String... args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(PythonCacheLoaderBenchmark.class.getName())
+				.resultFormat(ResultFormatType.JSON)
+				.result("target/jmh-PythonCacheLoaderBenchmark.json")
+				.build()).run();
+	}
+}
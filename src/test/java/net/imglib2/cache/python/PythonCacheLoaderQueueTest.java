@@ -1,8 +1,12 @@
 package net.imglib2.cache.python;
 
+import jep.DirectNDArray;
+import jep.JepException;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
 public class PythonCacheLoaderQueueTest {
 
 	@Test
@@ -18,4 +22,68 @@ public class PythonCacheLoaderQueueTest {
 		}
 	}
 
-}
\ No newline at end of file
+	private static PythonCacheLoaderBlockTask blockTask(final ByteBuffer buffer, final String code) {
+		return new PythonCacheLoaderBlockTask(
+				buffer,
+				new DirectNDArray<?>[0],
+				0,
+				new long[] {0, 0},
+				new long[] {1, 1},
+				Halo.empty(2),
+				code);
+	}
+
+	@Test
+	public void testBlockTaskOnWorkerQueue() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+		final PythonCacheLoaderBlockTask task = blockTask(buffer, "block.data[...] = 3");
+		try (final PythonWorkerQueue queue = new PythonWorkerQueue(1)) {
+			queue.submit(task).get();
+			queue.submit(task).get();
+		}
+		for (int i = 0; i < 4; ++i)
+			Assert.assertEquals(3, buffer.get(i));
+	}
+
+	@Test
+	public void testCompiledCodeIsBounded() throws Exception {
+		final int numCodes = PythonCacheLoaderQueue.MAX_COMPILED_CODE + 10;
+		final PythonTask<Long> task = python -> {
+			python.exec(String.join("\n",
+					"for key in range(" + numCodes + "):",
+					"    _compile(key, f'x = {key}')",
+					"num_compiled = len(_compiled_code)"));
+			return python.getValue("num_compiled", Long.class);
+		};
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1)) {
+			Assert.assertEquals(PythonCacheLoaderQueue.MAX_COMPILED_CODE, (long) queue.submit(task).get());
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy installed. The {@code python3} executable must be on the
+	 * {@code PATH} or in {@code PYTHONHOME}.
+	 */
+	@Test
+	public void testWorkerProcessRestart() throws Exception {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+		try (final PythonCacheLoaderQueue queue = PythonCacheLoaderQueue.withProcesses(1, "import os")) {
+			try {
+				queue.submit(blockTask(buffer, "os._exit(1)")).get();
+				Assert.fail("Expected block to fail when the process dies.");
+			} catch (final JepException e) {
+				// expected
+			}
+			// a new process executes the next block
+			queue.submit(blockTask(buffer, "block.data[...] = 3")).get();
+			try {
+				queue.submit(python -> python.exec("a = 1"));
+				Assert.fail("Expected processes to reject tasks other than blocks.");
+			} catch (final UnsupportedOperationException e) {
+				// expected
+			}
+		}
+		for (int i = 0; i < 4; ++i)
+			Assert.assertEquals(3, buffer.get(i));
+	}
+}
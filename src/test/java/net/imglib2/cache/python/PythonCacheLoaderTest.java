@@ -4,14 +4,24 @@ import jep.DirectNDArray;
 import jep.JepException;
 import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.CacheLoader;
 import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.VolatileCachedCellImg;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderCache;
 import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.basictypeaccess.array.DoubleArray;
 import net.imglib2.img.basictypeaccess.array.ShortArray;
 import net.imglib2.img.basictypeaccess.nio.BufferAccess;
+import net.imglib2.img.basictypeaccess.nio.ByteBufferAccess;
+import net.imglib2.img.basictypeaccess.nio.DoubleBufferAccess;
 import net.imglib2.img.basictypeaccess.nio.ShortBufferAccess;
+import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
@@ -21,11 +31,33 @@ import net.imglib2.type.numeric.integer.LongType;
 import net.imglib2.type.numeric.integer.ShortType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.type.volatiles.VolatileDoubleType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class PythonCacheLoaderTest {
@@ -89,6 +121,697 @@ public class PythonCacheLoaderTest {
 		Assert.assertArrayEquals(rangeData, numpyAverages, 0.0);
 	}
 
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testLowerHaloOnly() throws InterruptedException, JepException {
+		final double[] rangeData = {
+				0, 1, 2, 3, 4,
+				5, 6, 7, 8, 9
+		};
+		final long[] dims = {5, 2};
+		final CellGrid grid = new CellGrid(dims, new int[] {3, 1});
+		final ArrayImg<DoubleType, DoubleArray> range = ArrayImgs.doubles(rangeData, dims);
+		// block.halo must not crop the inputs to nothing where the upper halo is 0
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1)) {
+			final CachedCellImg<DoubleType, ? extends BufferAccess<?>> img = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, "block.data[...] = block.inputs[0][block.halo]", new DoubleType(), new Halo(new int[] {2, 1}, new int[] {0, 0}), Views.extendZero(range))
+					.createCachedCellImg(10);
+			final double[] values = StreamSupport.stream(Views.flatIterable(img).spliterator(), false).mapToDouble(DoubleType::getRealDouble).toArray();
+			Assert.assertArrayEquals(rangeData, values, 0.0);
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testBatching() throws InterruptedException, JepException, ExecutionException {
+		final double[] rangeData = {
+				0, 1, 2, 3, 4,
+				5, 6, 7, 8, 9
+		};
+		final double[] averages = {1.0, 3.5, 6.0, 8.5};
+		final int[] bs = {3, 1};
+		final long[] dims = {5, 2};
+
+		final String code = String.join(
+				"\n",
+				"batch_sizes.append(len(batch.blocks))",
+				"for b in batch.blocks:",
+				"    b.data[...] = np.mean(b.inputs[0])"
+		);
+
+		final CellGrid grid = new CellGrid(dims, bs);
+		final ArrayImg<DoubleType, DoubleArray> range = ArrayImgs.doubles(rangeData, dims);
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1, "batch_sizes = []")) {
+			final PythonCacheLoader<DoubleType, DoubleBufferAccess> loader = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, code, new DoubleType(), new DoubleBufferAccess(1), Halo.empty(2), Views.extendZero(range))
+					.withBatching(4, 100, TimeUnit.MILLISECONDS);
+			// submit all cells without waiting so that they can be batched
+			final List<CompletableFuture<Cell<DoubleBufferAccess>>> cells = LongStream.range(0, averages.length)
+					.mapToObj(loader::getAsync)
+					.collect(Collectors.toList());
+			for (int i = 0; i < averages.length; ++i) {
+				final Cell<DoubleBufferAccess> cell = cells.get(i).join();
+				Assert.assertTrue(cell.getData().isValid());
+				for (int k = 0; k < cell.size(); ++k)
+					Assert.assertEquals(averages[i], cell.getData().getValue(k), 0.0);
+			}
+			final List<?> batchSizes = queue.submit((PythonTask<List>) python -> python.getValue("batch_sizes", List.class)).get();
+			Assert.assertEquals(averages.length, batchSizes.stream().mapToLong(size -> ((Number) size).longValue()).sum());
+			Assert.assertTrue("Expected at least one batch of multiple blocks but got " + batchSizes,
+					batchSizes.stream().anyMatch(size -> ((Number) size).longValue() > 1));
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 */
+	@Test
+	public void testBatchingOfOne() throws InterruptedException, JepException {
+		final String code = String.join(
+				"\n",
+				"for b in batch.blocks:",
+				"    b.data[...] = b.index"
+		);
+
+		final long[] dims = {4, 2};
+		final CellGrid grid = new CellGrid(dims, new int[] {2, 1});
+		final ArrayImg<DoubleType, DoubleArray> input = ArrayImgs.doubles(dims);
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1)) {
+			final PythonCacheLoader<DoubleType, DoubleBufferAccess> loader = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, code, new DoubleType(), new DoubleBufferAccess(1), Halo.empty(2), Views.extendZero(input))
+					.withBatching(1, 100, TimeUnit.MILLISECONDS);
+			for (long index = 0; index < grid.getNumCells(); ++index) {
+				final Cell<DoubleBufferAccess> cell = loader.get(index);
+				for (int k = 0; k < cell.size(); ++k)
+					Assert.assertEquals(index, cell.getData().getValue(k), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testGridMaterializer() throws InterruptedException, JepException, ExecutionException {
+		final double[] rangeData = {
+				0, 1, 2, 3, 4,
+				5, 6, 7, 8, 9
+		};
+		final int[] bs = {3, 1};
+		final long[] dims = {5, 2};
+
+		final String code = "block.data[...] = np.mean(block.inputs[0])";
+
+		final CellGrid grid = new CellGrid(dims, bs);
+		final ArrayImg<DoubleType, DoubleArray> range = ArrayImgs.doubles(rangeData, dims);
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(2)) {
+			final PythonCacheLoader<DoubleType, ? extends BufferAccess<?>> loader = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, code, new DoubleType(), Views.extendZero(range));
+			final Map<Long, Double> means = new ConcurrentHashMap<>();
+			final AtomicLong numDone = new AtomicLong();
+			Assert.assertEquals(4, materializeMeans(loader, new FinalInterval(dims), means, numDone));
+			Assert.assertEquals(4, numDone.get());
+			Assert.assertEquals(1.0, means.get(0L), 0.0);
+			Assert.assertEquals(3.5, means.get(1L), 0.0);
+			Assert.assertEquals(6.0, means.get(2L), 0.0);
+			Assert.assertEquals(8.5, means.get(3L), 0.0);
+
+			// only cells that intersect the interval
+			means.clear();
+			Assert.assertEquals(2, materializeMeans(loader, Intervals.createMinMax(4, 0, 4, 1), means, numDone));
+			Assert.assertEquals(new HashSet<>(Arrays.asList(1L, 3L)), means.keySet());
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testLoaderMetrics() throws InterruptedException, JepException {
+		final double[] rangeData = {
+				0, 1, 2, 3, 4,
+				5, 6, 7, 8, 9
+		};
+		final long[] dims = {5, 2};
+		final CellGrid grid = new CellGrid(dims, new int[] {3, 1});
+		// copied from a Java array and passed without a copy from a direct buffer
+		final ArrayImg<DoubleType, DoubleArray> copied = ArrayImgs.doubles(rangeData, dims);
+		final ArrayImg<DoubleType, DoubleBufferAccess> strided = ArrayImgs.doubles(new DoubleBufferAccess(ByteBuffer.allocateDirect(8 * 10), true), dims);
+		final AtomicLong numZeroCopy = new AtomicLong();
+		final AtomicLong numCopied = new AtomicLong();
+		final AtomicLong bytesCopied = new AtomicLong();
+		final AtomicLong bytesAllocated = new AtomicLong();
+		final Map<Long, Boolean> computed = new ConcurrentHashMap<>();
+		final PythonMetrics metrics = new PythonMetrics() {
+			@Override
+			public void inputStaged(final long stagingNanos, final boolean isZeroCopy, final long numBytes) {
+				(isZeroCopy ? numZeroCopy : numCopied).incrementAndGet();
+				bytesCopied.addAndGet(numBytes);
+			}
+
+			@Override
+			public void outputAllocated(final long numBytes) {
+				bytesAllocated.addAndGet(numBytes);
+			}
+
+			@Override
+			public void cellComputed(final long key, final long stagingNanos, final long computeNanos, final boolean isValid) {
+				Assert.assertTrue(computeNanos > 0);
+				computed.put(key, isValid);
+			}
+		};
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(2)) {
+			queue.setMetrics(metrics);
+			final CachedCellImg<DoubleType, ? extends BufferAccess<?>> img = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, "block.data[...] = block.inputs[0] + block.inputs[1]", new DoubleType(), copied, strided)
+					.createCachedCellImg(10);
+			img.forEach(DoubleType::get);
+			Assert.assertEquals(4, numCopied.get());
+			Assert.assertEquals(4, numZeroCopy.get());
+			Assert.assertEquals(8 * 10, bytesCopied.get());
+			Assert.assertEquals(8 * 10, bytesAllocated.get());
+			Assert.assertEquals(new HashSet<>(Arrays.asList(0L, 1L, 2L, 3L)), computed.keySet());
+			Assert.assertFalse(computed.containsValue(false));
+
+			// failed computations are reported as invalid cells
+			computed.clear();
+			final PythonCacheLoader<DoubleType, ? extends BufferAccess<?>> failing = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, "1/0", new DoubleType());
+			Assert.assertFalse(failing.get(0L).getData().isValid());
+			Assert.assertEquals(Collections.singletonMap(0L, false), computed);
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testCloseGridMaterializerWhileRunning() throws Exception {
+		final CellGrid grid = new CellGrid(new long[] {8, 8}, new int[] {2, 2});
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(2, "import time")) {
+			final PythonCacheLoader<DoubleType, ? extends BufferAccess<?>> loader = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, "time.sleep(0.1)", new DoubleType());
+			final GridMaterializer<?> materializer = new GridMaterializer<>(loader, 2, 4);
+			final CompletableFuture<Long> run = CompletableFuture.supplyAsync(() -> {
+				try {
+					return materializer.run((key, cell) -> {});
+				} catch (final Exception e) {
+					throw new CompletionException(e);
+				}
+			});
+			Thread.sleep(150);
+			materializer.close();
+			// cells that complete after close release their permits, i.e. the run does not hang
+			try {
+				run.get(10, TimeUnit.SECONDS);
+				Assert.fail();
+			} catch (final ExecutionException e) {
+				Assert.assertTrue(e.getCause().getCause() instanceof RejectedExecutionException);
+			}
+		}
+	}
+
+	private static <A extends BufferAccess<A>> long materializeMeans(
+			final PythonCacheLoader<?, A> loader,
+			final Interval interval,
+			final Map<Long, Double> means,
+			final AtomicLong numDone) throws InterruptedException, ExecutionException {
+		try (final GridMaterializer<A> materializer = new GridMaterializer<>(loader, 2, 3)) {
+			return materializer.run(
+					interval,
+					(key, cell) -> means.put(key, ((DoubleBuffer) cell.getData().getCurrentStorageArray()).get(0)),
+					(done, numCells) -> numDone.set(done));
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy installed. The {@code python3} executable must be on the
+	 * {@code PATH} or in {@code PYTHONHOME}.
+	 */
+	@Test
+	public void testWorkerProcesses() throws InterruptedException, JepException {
+		final double[] rangeData = {
+				0, 1, 2, 3, 4,
+				5, 6, 7, 8, 9
+		};
+		final double[] averages = {
+				1.0, 1.0, 1.0, 3.5, 3.5,
+				6.0, 6.0, 6.0, 8.5, 8.5
+		};
+		final int[] bs = {3, 1};
+		final long[] dims = {5, 2};
+
+		final CellGrid grid = new CellGrid(dims, bs);
+		final ArrayImg<DoubleType, DoubleArray> range = ArrayImgs.doubles(rangeData, dims);
+		try (final PythonCacheLoaderQueue queue = PythonCacheLoaderQueue.withProcesses(2, "import numpy as np")) {
+			final PythonCacheLoader<DoubleType, ? extends BufferAccess<?>> loader = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, "block.data[...] = np.mean(block.inputs[0])", new DoubleType(), Views.extendZero(range));
+			final CachedCellImg<DoubleType, ? extends BufferAccess<?>> img = loader.createCachedCellImg(30);
+			final double[] numpyAverages = StreamSupport.stream(Views.flatIterable(img).spliterator(), false).mapToDouble(DoubleType::getRealDouble).toArray();
+			Assert.assertArrayEquals(averages, numpyAverages, 0.0);
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testVolatile() throws InterruptedException, JepException {
+		final CellGrid grid = new CellGrid(new long[] {4, 2}, new int[] {2, 2});
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1)) {
+			final PythonCacheLoader<DoubleType, ? extends BufferAccess<?>> loader = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, "block.data[...] = block.index + 1", new DoubleType());
+			final BlockingFetchQueues<Callable<?>> fetchQueue = new BlockingFetchQueues<>(1, 1);
+			final FetcherThreads fetchers = new FetcherThreads(fetchQueue, 1);
+			try {
+				final VolatileCachedCellImg<VolatileDoubleType, ?> img = loader.createVolatileCachedCellImg(new VolatileDoubleType(), 10, fetchQueue);
+				// cells are requested on first access and filled asynchronously
+				final long deadline = System.currentTimeMillis() + 10000;
+				while (!img.getAt(3, 1).isValid() && System.currentTimeMillis() < deadline)
+					Thread.sleep(10);
+				Assert.assertTrue(img.getAt(3, 1).isValid());
+				Assert.assertEquals(2.0, img.getAt(3, 1).get().getRealDouble(), 0.0);
+			} finally {
+				fetchers.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testVolatileFailureBackoff() throws Exception {
+		final CellGrid grid = new CellGrid(new long[] {4, 2}, new int[] {2, 2});
+		final String code = String.join("\n",
+				"computed.append(block.index)",
+				"if block.index == 1:",
+				"    raise ValueError('failure for testing')",
+				"block.data[...] = 1");
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1, "computed = []")) {
+			final PythonCacheLoader<DoubleType, ? extends BufferAccess<?>> loader = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, code, new DoubleType());
+			final BlockingFetchQueues<Callable<?>> fetchQueue = new BlockingFetchQueues<>(1, 1);
+			final FetcherThreads fetchers = new FetcherThreads(fetchQueue, 1);
+			try {
+				final VolatileCachedCellImg<VolatileDoubleType, ?> img = loader.createVolatileCachedCellImg(new VolatileDoubleType(), 10, fetchQueue);
+				// keep accessing the failing cell while the valid cell is computed
+				final long deadline = System.currentTimeMillis() + 10000;
+				while (!img.getAt(0, 0).isValid() && System.currentTimeMillis() < deadline) {
+					Assert.assertFalse(img.getAt(3, 1).isValid());
+					Thread.sleep(10);
+				}
+				for (int i = 0; i < 20; ++i) {
+					Assert.assertFalse(img.getAt(3, 1).isValid());
+					Thread.sleep(10);
+				}
+				final List<?> computed = queue.submit((PythonTask<List>) python -> python.getValue("computed", List.class)).get();
+				// the failed cell is not requested again within the retry delay
+				Assert.assertEquals(1, computed.stream().filter(index -> ((Number) index).longValue() == 1).count());
+			} finally {
+				fetchers.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testPrefetching() throws Exception {
+		final CellGrid grid = new CellGrid(new long[] {10}, new int[] {1});
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1, "computed = set()");
+				final PrefetchingCachedCellImg<LongType, ? extends BufferAccess<?>> img = PythonCacheLoader
+						.fromRandomAccessibles(grid, queue, "computed.add(block.index)\nblock.data[...] = block.index", new LongType())
+						.createPrefetchingCachedCellImg(10, 2)) {
+			Assert.assertEquals(0, img.getAt(0).get());
+			// neighbors within the radius are computed without being requested
+			final PythonTask<Boolean> isPrefetched = python -> python.getValue("computed == {0, 1, 2}", Boolean.class);
+			final long deadline = System.currentTimeMillis() + 10000;
+			while (!queue.submit(isPrefetched).get() && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			Assert.assertTrue(queue.submit(isPrefetched).get());
+			Assert.assertEquals(2, img.getAt(2).get());
+			Assert.assertEquals(1, img.getAt(1).get());
+
+			// cells are loaded on demand after closing
+			img.close();
+			Assert.assertEquals(7, img.getAt(7).get());
+			Assert.assertEquals(8, img.getAt(8).get());
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testDiskCache() throws Exception {
+		final CellGrid grid = new CellGrid(new long[] {5, 3}, new int[] {2, 2});
+		final Path directory = Files.createTempDirectory("python-disk-cache");
+		final String code = "computed.add(block.index)\nblock.data[...] = block.index";
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1, "computed = set()")) {
+			final PythonCacheLoader<LongType, ? extends BufferAccess<?>> loader = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, code, new LongType())
+					.withDiskCache(directory);
+			final CachedCellImg<LongType, ? extends BufferAccess<?>> img = loader.createCachedCellImg(10);
+			Assert.assertEquals(5, img.getAt(4, 2).get());
+			img.forEach(LongType::get);
+			// cells are written in the background
+			loader.closeDiskCache();
+		}
+		// attributes.json and one file per cell
+		Assert.assertEquals(7, countFiles(directory));
+
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1, "computed = set()")) {
+			final CachedCellImg<LongType, ? extends BufferAccess<?>> img = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, code, new LongType())
+					.withDiskCache(directory)
+					.createCachedCellImg(10);
+			Assert.assertEquals(5, img.getAt(4, 2).get());
+			Assert.assertEquals(0, img.getAt(0, 0).get());
+			Assert.assertTrue(queue.submit((PythonTask<Boolean>) python -> python.getValue("len(computed) == 0", Boolean.class)).get());
+
+			// a different inputs version does not reuse the stored cells
+			final CachedCellImg<LongType, ? extends BufferAccess<?>> recomputed = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, code, new LongType())
+					.withDiskCache(directory, "v2")
+					.createCachedCellImg(10);
+			Assert.assertEquals(5, recomputed.getAt(4, 2).get());
+			Assert.assertTrue(queue.submit((PythonTask<Boolean>) python -> python.getValue("computed == {5}", Boolean.class)).get());
+		}
+	}
+
+	private static long countFiles(final Path directory) throws IOException {
+		try (final Stream<Path> files = Files.walk(directory)) {
+			// skip temporary files of incomplete writes
+			return files.filter(f -> Files.isRegularFile(f) && !f.getFileName().toString().startsWith(".")).count();
+		}
+	}
+
+	@Test
+	public void testStitchedHaloInput() {
+		final long[] dims = {7, 5, 3};
+		final CellGrid grid = new CellGrid(dims, new int[] {3, 2, 2});
+		final CacheLoader<Long, Cell<DoubleBufferAccess>> cellLoader = key -> {
+			final long[] min = new long[grid.numDimensions()];
+			final int[] dim = new int[min.length];
+			grid.getCellDimensions(key, min, dim);
+			final DoubleBufferAccess access = new DoubleBufferAccess(ByteBuffer.allocateDirect(8 * dim[0] * dim[1] * dim[2]), true);
+			for (int z = 0, i = 0; z < dim[2]; ++z)
+				for (int y = 0; y < dim[1]; ++y)
+					for (int x = 0; x < dim[0]; ++x, ++i)
+						access.setValue(i, (min[0] + x) + 10 * (min[1] + y) + 100 * (min[2] + z));
+			return new Cell<>(dim, min, access);
+		};
+		final CachedCellImg<DoubleType, DoubleBufferAccess> img = new CachedCellImg<>(
+				grid,
+				new DoubleType(),
+				new GuardedStrongRefLoaderCache<Long, Cell<DoubleBufferAccess>>(100).withLoader(cellLoader),
+				new DoubleBufferAccess(1));
+
+		final Halo halo = new Halo(new int[] {2, 1, 0}, new int[] {1, 3, 2});
+		final PythonCacheLoader.InputGenerator stitched = PythonCacheLoader.InputGenerator.forRandomAccessible(Views.extendValue(img, new DoubleType(42)));
+		final PythonCacheLoader.InputGenerator copied = new PythonCacheLoader.InputGenerator.ForRandomAccessible(Views.extendValue(img, new DoubleType(42)));
+		try (final StagingExecutor staging = new StagingExecutor(3)) {
+			for (final Interval interval : Arrays.asList(
+					halo.extendInterval(new FinalInterval(new long[] {0, 0, 0}, new long[] {2, 1, 1})),
+					halo.extendInterval(new FinalInterval(new long[] {3, 2, 2}, new long[] {5, 3, 2})),
+					new FinalInterval(new long[] {-4, 6, -1}, new long[] {-1, 7, 0}))) {
+				final DoubleBuffer expected = (DoubleBuffer) copied.createInputFor(interval).getData();
+				// cells are stitched on the calling thread or split among the staging threads
+				for (final StagingExecutor executor : Arrays.asList(null, staging)) {
+					final DoubleBuffer actual = (DoubleBuffer) stitched.createInputFor(interval, null, executor).getData();
+					Assert.assertEquals(expected.capacity(), actual.capacity());
+					for (int i = 0; i < expected.capacity(); ++i)
+						Assert.assertEquals(expected.get(i), actual.get(i), 0.0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStridedViewInput() {
+		final long[] dims = {6, 5, 3};
+		final ArrayImg<DoubleType, DoubleBufferAccess> array = ArrayImgs.doubles(new DoubleBufferAccess(ByteBuffer.allocateDirect(8 * 6 * 5 * 3), true), dims);
+		final Cursor<DoubleType> c = array.cursor();
+		for (int i = 0; c.hasNext(); ++i)
+			c.next().setReal(i);
+
+		final List<RandomAccessible<DoubleType>> views = Arrays.asList(
+				array,
+				Views.hyperSlice(array, 2, 1),
+				Views.translate(Views.hyperSlice(array, 0, 4), 10, 20),
+				Views.permute(Views.interval(array, new long[] {1, 1, 0}, new long[] {4, 3, 2}), 0, 2),
+				Views.hyperSlice(Views.extendZero(array), 1, 2));
+		final List<Interval> intervals = Arrays.asList(
+				Intervals.createMinMax(1, 1, 0, 3, 2, 1),
+				Intervals.createMinMax(1, 0, 3, 1),
+				Intervals.createMinMax(11, 20, 13, 21),
+				Intervals.createMinMax(0, 1, 1, 2, 3, 4),
+				Intervals.createMinMax(0, 0, 5, 2));
+		for (int i = 0; i < views.size(); ++i) {
+			final PythonCacheLoader.InputGenerator strided = PythonCacheLoader.InputGenerator.forRandomAccessible(views.get(i));
+			final PythonCacheLoader.InputGenerator copied = new PythonCacheLoader.InputGenerator.ForRandomAccessible(views.get(i));
+			Assert.assertTrue(strided instanceof PythonCacheLoader.InputGenerator.ForStridedView);
+			final DirectNDArray<?> input = strided.createInputFor(intervals.get(i));
+			Assert.assertTrue(input instanceof StridedNDArray);
+			assertBufferEquals(
+					(DoubleBuffer) copied.createInputFor(intervals.get(i)).getData(),
+					(DoubleBuffer) ((StridedNDArray<?>) input).toContiguous().getData());
+		}
+
+		// out of bounds of the extended image: copy
+		final PythonCacheLoader.InputGenerator extended = PythonCacheLoader.InputGenerator.forRandomAccessible(views.get(4));
+		final Interval outOfBounds = Intervals.createMinMax(-1, 0, 5, 2);
+		final DirectNDArray<?> input = extended.createInputFor(outOfBounds);
+		Assert.assertTrue(((StridedNDArray<?>) input).isCopy());
+		assertBufferEquals(
+				(DoubleBuffer) new PythonCacheLoader.InputGenerator.ForRandomAccessible(views.get(4)).createInputFor(outOfBounds).getData(),
+				(DoubleBuffer) input.getData());
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testStridedViewInPython() throws InterruptedException, JepException {
+		final long[] dims = {6, 5};
+		final ArrayImg<DoubleType, DoubleBufferAccess> array = ArrayImgs.doubles(new DoubleBufferAccess(ByteBuffer.allocateDirect(8 * 6 * 5), true), dims);
+		final Cursor<DoubleType> c = array.cursor();
+		for (int i = 0; c.hasNext(); ++i)
+			c.next().setReal(i);
+		final CellGrid grid = new CellGrid(dims, new int[] {2, 2});
+		// interior blocks are views and border blocks are copies: both are read-only
+		final String code = String.join(
+				"\n",
+				"assert not block.inputs[0].flags.writeable",
+				"block.data[...] = block.inputs[0][block.halo]");
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(2)) {
+			final CachedCellImg<DoubleType, ? extends BufferAccess<?>> img = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, code, new DoubleType(), new Halo(1, 1), Views.extendZero(array))
+					.createCachedCellImg(10);
+			final Cursor<DoubleType> expected = array.cursor();
+			final Cursor<DoubleType> actual = Views.flatIterable(img).cursor();
+			while (expected.hasNext())
+				Assert.assertEquals(expected.next().get(), actual.next().get(), 0.0);
+		}
+	}
+
+	private static void assertBufferEquals(final DoubleBuffer expected, final DoubleBuffer actual) {
+		Assert.assertEquals(expected.capacity(), actual.capacity());
+		for (int i = 0; i < expected.capacity(); ++i)
+			Assert.assertEquals(expected.get(i), actual.get(i), 0.0);
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testLazyInputs() throws InterruptedException, JepException {
+		final ArrayImg<DoubleType, DoubleArray> raw = ArrayImgs.doubles(new double[] {0, 0, 1, 2, 0, 0}, 6);
+		final ArrayImg<DoubleType, DoubleArray> features = ArrayImgs.doubles(new double[] {1, 2, 3, 4, 5, 6}, 6);
+		final AtomicLong numStagedFeatures = new AtomicLong();
+		final PythonCacheLoader.InputGenerator featureInput = interval -> {
+			numStagedFeatures.incrementAndGet();
+			return new DirectNDArray<>(
+					PythonCacheLoader.copyToBuffer(features, interval),
+					PythonCacheLoader.InputGenerator.getNDArrayShape(interval));
+		};
+		final String code = String.join(
+				"\n",
+				"assert len(block.inputs) == 2",
+				"block.data[...] = 10 * block.inputs[-1] if np.any(block.inputs[0]) else 0"
+		);
+		final CellGrid grid = new CellGrid(new long[] {6}, new int[] {2});
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(2, "import numpy as np")) {
+			final PythonCacheLoader<DoubleType, DoubleBufferAccess> loader = PythonCacheLoader.fromInputGenerators(
+					grid,
+					queue,
+					code,
+					new DoubleType(),
+					new DoubleBufferAccess(1),
+					Halo.empty(1),
+					PythonCacheLoader.InputGenerator.forRandomAccessible(raw),
+					featureInput).withLazyInputs();
+			final CachedCellImg<DoubleType, DoubleBufferAccess> img = loader.createCachedCellImg(3);
+			final double[] values = StreamSupport.stream(Views.flatIterable(img).spliterator(), false).mapToDouble(DoubleType::getRealDouble).toArray();
+			Assert.assertArrayEquals(new double[] {0, 0, 30, 40, 0, 0}, values, 0.0);
+			Assert.assertEquals(1, numStagedFeatures.get());
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test(timeout = 30000)
+	public void testLazyInputOfSameQueue() throws InterruptedException, JepException {
+		final CellGrid grid = new CellGrid(new long[] {6}, new int[] {2});
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(1)) {
+			final CachedCellImg<DoubleType, ? extends BufferAccess<?>> upstream = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, "block.data[...] = block.index + 1", new DoubleType())
+					.createCachedCellImg(10);
+			final PythonCacheLoader<DoubleType, ? extends BufferAccess<?>> downstream = PythonCacheLoader
+					.fromRandomAccessibles(grid, queue, "block.data[...] = 2 * block.inputs[0]", new DoubleType(), upstream)
+					.withLazyInputs();
+			// the only worker would wait for itself to compute the input
+			Assert.assertFalse(downstream.get(0L).getData().isValid());
+
+			// cached inputs are staged on the worker
+			upstream.forEach(DoubleType::get);
+			final CachedCellImg<DoubleType, ? extends BufferAccess<?>> img = downstream.createCachedCellImg(10);
+			final double[] values = StreamSupport.stream(Views.flatIterable(img).spliterator(), false).mapToDouble(DoubleType::getRealDouble).toArray();
+			Assert.assertArrayEquals(new double[] {2, 2, 4, 4, 6, 6}, values, 0.0);
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testStagingCache() throws InterruptedException, JepException {
+		final double[] rangeData = {
+				0, 1, 2, 3, 4,
+				5, 6, 7, 8, 9
+		};
+		final long[] dims = {5, 2};
+		final CellGrid grid = new CellGrid(dims, new int[] {3, 1});
+		final ArrayImg<DoubleType, DoubleArray> range = ArrayImgs.doubles(rangeData, dims);
+		final StagingCache stagingCache = new StagingCache(1 << 20);
+		final String code = String.join(
+				"\n",
+				"assert not block.inputs[0].flags.writeable",
+				"block.data[...] = block.inputs[0][block.halo]");
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(2)) {
+			final List<CachedCellImg<DoubleType, ? extends BufferAccess<?>>> imgs = Arrays.asList(
+					PythonCacheLoader
+							.fromRandomAccessibles(grid, queue, code, new DoubleType(), new Halo(1, 1), Views.extendZero(range))
+							.withStagingCache(stagingCache)
+							.createCachedCellImg(10),
+					PythonCacheLoader
+							.fromRandomAccessibles(grid, queue, code, new DoubleType(), new Halo(1, 1), Views.extendZero(range))
+							.withStagingCache(stagingCache)
+							.createCachedCellImg(10));
+			for (final CachedCellImg<DoubleType, ? extends BufferAccess<?>> img : imgs) {
+				final double[] values = StreamSupport.stream(Views.flatIterable(img).spliterator(), false).mapToDouble(DoubleType::getRealDouble).toArray();
+				Assert.assertArrayEquals(rangeData, values, 0.0);
+			}
+			// the second loader shares the inputs of the first
+			Assert.assertEquals(4, stagingCache.getNumMisses());
+			Assert.assertEquals(4, stagingCache.getNumHits());
+			// all inputs were released when the cells were created
+			stagingCache.clear();
+			Assert.assertEquals(0, stagingCache.getNumBytes());
+		}
+	}
+
+	/**
+	 * This test requires installation of Python with numpy and jep packages installed.
+	 * It may be necessary to set PYTHONHOME appropriately.
+	 */
+	@Test
+	public void testMultipleOutputs() throws InterruptedException, JepException {
+		final ArrayImg<DoubleType, DoubleArray> source = ArrayImgs.doubles(new double[] {1, 2, 3, 4, 5, 6}, 6);
+		final AtomicLong numStaged = new AtomicLong();
+		final PythonCacheLoader.InputGenerator input = interval -> {
+			numStaged.incrementAndGet();
+			return new DirectNDArray<>(
+					PythonCacheLoader.copyToBuffer(source, interval),
+					PythonCacheLoader.InputGenerator.getNDArrayShape(interval));
+		};
+		final String code = String.join(
+				"\n",
+				"block.data[...] = block.inputs[0] > 3",
+				"block.outputs['doubled'][...] = 2 * block.inputs[0]"
+		);
+		final CellGrid grid = new CellGrid(new long[] {6}, new int[] {2});
+		try (final PythonCacheLoaderQueue queue = new PythonCacheLoaderQueue(2, "import numpy as np")) {
+			final PythonCacheLoader<ByteType, ByteBufferAccess> loader = PythonCacheLoader.fromInputGenerators(
+					grid,
+					queue,
+					code,
+					new ByteType(),
+					new ByteBufferAccess(1),
+					Halo.empty(1),
+					input).withOutput("doubled", new DoubleType());
+			final LinkedCachedCellImgs<ByteType, ?> imgs = loader.createLinkedCachedCellImgs(3);
+			Assert.assertEquals(Collections.singleton("doubled"), imgs.getOutputNames());
+			final CachedCellImg<DoubleType, ?> doubled = imgs.get("doubled", new DoubleType());
+			final double[] doubledValues = StreamSupport.stream(Views.flatIterable(doubled).spliterator(), false).mapToDouble(DoubleType::getRealDouble).toArray();
+			Assert.assertArrayEquals(new double[] {2, 4, 6, 8, 10, 12}, doubledValues, 0.0);
+			Assert.assertArrayEquals(new long[] {0, 0, 0, 1, 1, 1}, toPrimitiveLongArray(imgs.getData()));
+			// the cells of both images were computed together
+			Assert.assertEquals(3, numStaged.get());
+
+			// loading only block.data would drop the additional outputs
+			try {
+				loader.createCachedCellImg(3);
+				Assert.fail();
+			} catch (final IllegalStateException e) {
+				// expected
+			}
+			try {
+				new GridMaterializer<>(loader, 1, 1).close();
+				Assert.fail();
+			} catch (final IllegalStateException e) {
+				// expected
+			}
+			Assert.assertEquals(3, numStaged.get());
+		}
+	}
+
+	@Test
+	public void testMultiThreadedStaging() {
+		final ArrayImg<DoubleType, DoubleArray> source = ArrayImgs.doubles(6, 5, 7);
+		final Cursor<DoubleType> c = source.cursor();
+		for (int i = 0; c.hasNext(); ++i)
+			c.next().setReal(i);
+		final FinalInterval interval = new FinalInterval(new long[] {1, -1, 2}, new long[] {5, 3, 6});
+		try (final StagingExecutor staging = new StagingExecutor(3)) {
+			final DoubleBuffer expected = (DoubleBuffer) PythonCacheLoader.copyToBuffer(Views.extendZero(source), interval);
+			final DoubleBuffer actual = (DoubleBuffer) PythonCacheLoader.copyToBuffer(Views.extendZero(source), interval, null, staging);
+			Assert.assertEquals(expected.capacity(), actual.capacity());
+			for (int i = 0; i < expected.capacity(); ++i)
+				Assert.assertEquals(expected.get(i), actual.get(i), 0.0);
+		}
+	}
+
 	@Test
 	public void testReuseNativeBuffer() throws InterruptedException, JepException {
 		final CellGrid grid = new CellGrid(new long[] {2}, new int[] {1});
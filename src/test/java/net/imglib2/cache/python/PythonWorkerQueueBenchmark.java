@@ -0,0 +1,102 @@
+package net.imglib2.cache.python;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-task overhead of {@link PythonWorkerQueue#submit(PythonTask)} and throughput scaling with the number of workers.
+ * Writes a JSON report to {@code target/jmh-PythonWorkerQueueBenchmark.json} when run through {@link #main(String...)}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PythonWorkerQueueBenchmark {
+
+	private static final int NUM_TASKS = 256;
+
+	private static final PythonTask<Object> NOOP = python -> null;
+
+	// numpy matrix multiplication releases the GIL, like most expensive Python code
+	private static final PythonTask.Runnable WORK = python -> python.exec("b = a @ a");
+
+	@Param({"1", "2", "4", "8"})
+	public int numWorkers;
+
+	private PythonWorkerQueue queue;
+
+	@Setup
+	public void setup() throws Exception {
+		queue = new PythonWorkerQueue(numWorkers, "import numpy as np\na = np.random.rand(128, 128)");
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		queue.close();
+	}
+
+	/**
+	 * Round trip of a single task that does nothing, i.e. the latency added by the queue.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	public Object submitNoop() throws Exception {
+		return queue.submit(NOOP).get();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OperationsPerInvocation(NUM_TASKS)
+	public void throughputNoop() throws Exception {
+		submitAll(NOOP);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OperationsPerInvocation(NUM_TASKS)
+	public void throughputNumpy() throws Exception {
+		submitAll(WORK);
+	}
+
+	private void submitAll(final PythonTask<?> task) throws Exception {
+		final List<PythonFuture<?>> futures = new ArrayList<>();
+		for (int i = 0; i < NUM_TASKS; ++i)
+			futures.add(queue.submit(task));
+		for (final PythonFuture<?> future : futures)
+			future.get();
+	}
+
+	/**
+	 * @param args JMH command line options, e.g. {@code -p numWorkers=2}
+	 */
+	public static void main(final String... args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(PythonWorkerQueueBenchmark.class.getName())
+				.resultFormat(ResultFormatType.JSON)
+				.result("target/jmh-PythonWorkerQueueBenchmark.json")
+				.build()).run();
+	}
+}
@@ -4,6 +4,11 @@ import jep.JepException;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class PythonWorkerQueueTest {
 
 	@Test
@@ -18,6 +23,27 @@ public class PythonWorkerQueueTest {
 		}
 	}
 
+	@Test
+	public void testSubInterpreterOrShared() throws Exception {
+		final PythonTask<Long> task = python -> {
+			python.exec("a = int(np.sum(np.arange(4)))");
+			return python.getValue("a", Long.class);
+		};
+		final PythonInterpreterFactory factory = PythonInterpreterFactory.subInterpreterOrShared("numpy");
+		try (final PythonWorkerQueue queue = new PythonWorkerQueue(2, "import numpy as np", factory)) {
+			Assert.assertEquals(6L, (long) queue.submit(task).get());
+		}
+	}
+
+	@Test
+	public void testDefaultInit() throws Exception {
+		// every embedded interpreter imports numpy and defines Block, even without a loader queue
+		try (final PythonWorkerQueue queue = new PythonWorkerQueue()) {
+			final PythonTask<Boolean> isDefined = python -> python.getValue("'np' in globals() and 'Block' in globals()", Boolean.class);
+			Assert.assertTrue(queue.submit(isDefined).get());
+		}
+	}
+
 	@Test(expected = JepException.class)
 	public void testThrowsExecutionException() throws Exception {
 		try (final PythonWorkerQueue queue = new PythonWorkerQueue()) {
@@ -33,4 +59,126 @@ public class PythonWorkerQueueTest {
 		}
 	}
 
-}
\ No newline at end of file
+	@Test
+	public void testWhenReady() throws Exception {
+		try (final PythonWorkerQueue queue = new PythonWorkerQueue(3, "import time; time.sleep(0.1)")) {
+			final PythonTask<Long> task = python -> python.getValue("1 + 1", Long.class);
+			Assert.assertEquals(2L, (long) queue.submit(task).get());
+			queue.whenReady().get();
+			Assert.assertEquals(3, queue.getNumWorkers());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCloseFailsQueuedTasks() throws Exception {
+		final PythonFuture<Void> queued;
+		try (final PythonWorkerQueue queue = new PythonWorkerQueue(1, "import time")) {
+			queue.submit(python -> python.exec("time.sleep(0.2)"));
+			queued = queue.submit(python -> python.exec("a = 1"));
+		}
+		queued.get();
+		Assert.fail("Expected queued task to fail after close.");
+	}
+
+	@Test
+	public void testCloseKeepsInterruptStatus() throws Exception {
+		final PythonWorkerQueue queue = new PythonWorkerQueue(1, "import time");
+		final PythonFuture<Void> running = queue.submit(python -> python.exec("time.sleep(0.2)"));
+		Thread.currentThread().interrupt();
+		queue.close();
+		Assert.assertTrue(Thread.interrupted());
+		running.get();
+	}
+
+	@Test
+	public void testCancelAndExpire() throws Exception {
+		try (final PythonWorkerQueue queue = new PythonWorkerQueue(1, "import time")) {
+			final PythonFuture<Void> running = queue.submit(python -> python.exec("time.sleep(0.2)"));
+			final PythonFuture<Void> cancelled = queue.submit(python -> python.exec("a = 1"));
+			final PythonFuture<Void> expired = queue.submit((PythonTask.Runnable) python -> python.exec("b = 1"), PythonWorkerQueue.DEFAULT_PRIORITY, false, 10, TimeUnit.MILLISECONDS);
+			final PythonTask<Long> sum = python -> python.getValue("1 + 1", Long.class);
+			final CompletableFuture<Long> result = queue.submit(sum).toCompletableFuture();
+			Assert.assertTrue(cancelled.cancel());
+			Assert.assertTrue(cancelled.isCancelled());
+			try {
+				running.get(1, TimeUnit.MILLISECONDS);
+				Assert.fail("Expected wait for running task to time out.");
+			} catch (final TimeoutException e) {
+				// expected: the task is still running
+			}
+			try {
+				expired.get(5, TimeUnit.SECONDS);
+				Assert.fail("Expected expired task to fail.");
+			} catch (final TaskExpiredException e) {
+				// expected: expired before the worker was available
+			}
+			Assert.assertTrue(expired.isCancelled());
+			Assert.assertEquals(2L, (long) result.get());
+			Assert.assertTrue(running.isDone());
+			Assert.assertFalse(running.cancel());
+			final PythonTask<Boolean> isDefined = python -> python.getValue("'a' in globals() or 'b' in globals()", Boolean.class);
+			Assert.assertFalse(queue.submit(isDefined).get());
+		}
+	}
+
+
+	@Test
+	public void testStats() throws Exception {
+		try (final PythonWorkerQueue queue = new PythonWorkerQueue(2)) {
+			final PythonStats stats = PythonStats.attachTo(queue);
+			queue.submit(python -> python.exec("a = 1")).get();
+			try {
+				queue.submit(python -> python.exec("1/0")).get();
+			} catch (final JepException e) {
+				// counted as failure
+			}
+			Assert.assertEquals(2, stats.getTasksStarted());
+			Assert.assertEquals(2, stats.getExecutions());
+			Assert.assertEquals(1, stats.getFailedExecutions());
+			Assert.assertEquals(0, stats.getQueueDepth());
+			Assert.assertFalse(stats.getWorkerUtilization().isEmpty());
+			stats.reset();
+			Assert.assertEquals(0, stats.getExecutions());
+		}
+	}
+
+	@Test
+	public void testElastic() throws Exception {
+		try (final PythonWorkerQueue queue = PythonWorkerQueue.elastic(0, 2, 200, TimeUnit.MILLISECONDS, "import time")) {
+			Assert.assertEquals(0, queue.getNumWorkers());
+			final PythonFuture<Void> first = queue.submit(python -> python.exec("time.sleep(0.2)"));
+			final PythonFuture<Void> second = queue.submit(python -> python.exec("time.sleep(0.2)"));
+			Assert.assertEquals(2, queue.getNumWorkers());
+			first.get();
+			second.get();
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (queue.getNumWorkers() > 0 && System.nanoTime() < deadline)
+				Thread.sleep(10);
+			Assert.assertEquals(0, queue.getNumWorkers());
+			final PythonTask<Long> task = python -> python.getValue("1 + 1", Long.class);
+			Assert.assertEquals(2L, (long) queue.submit(task).get());
+		}
+	}
+
+	@Test
+	public void testInitFailureStopsWorkerStarts() throws Exception {
+		final AtomicInteger numCreated = new AtomicInteger();
+		final PythonRuntime.Factory failing = init -> {
+			numCreated.incrementAndGet();
+			throw new JepException("init failed");
+		};
+		try (final PythonWorkerQueue queue = new PythonWorkerQueue(0, 2, TimeUnit.SECONDS.toNanos(1), null, failing)) {
+			for (int i = 0; i < 3; ++i) {
+				try {
+					queue.submit((PythonTask<Object>) python -> null).get(5, TimeUnit.SECONDS);
+					Assert.fail();
+				} catch (final JepException e) {
+					Assert.assertEquals("init failed", e.getMessage());
+				}
+			}
+			// only the first submission started a worker
+			Assert.assertEquals(1, numCreated.get());
+			Assert.assertEquals(0, queue.getNumWorkers());
+		}
+	}
+}
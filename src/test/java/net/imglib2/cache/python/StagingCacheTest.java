@@ -0,0 +1,131 @@
+package net.imglib2.cache.python;
+
+import jep.DirectNDArray;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class StagingCacheTest {
+
+	private static Supplier<DirectNDArray<?>> stage(final AtomicInteger numStaged, final int size) {
+		return () -> {
+			numStaged.incrementAndGet();
+			return new DirectNDArray<>(ByteBuffer.allocateDirect(size), size);
+		};
+	}
+
+	@Test
+	public void testSharing() {
+		final StagingCache cache = new StagingCache(100);
+		final Object source = new Object();
+		final Interval interval = new FinalInterval(new long[] {0, 0}, new long[] {4, 1});
+		final AtomicInteger numStaged = new AtomicInteger();
+
+		final StagingCache.SharedNDArray first = cache.acquire(source, interval, stage(numStaged, 10));
+		final StagingCache.SharedNDArray second = cache.acquire(source, new FinalInterval(interval), stage(numStaged, 10));
+		Assert.assertTrue(first.wasStaged());
+		Assert.assertFalse(second.wasStaged());
+		Assert.assertSame(first.getData(), second.getData());
+		Assert.assertEquals(1, numStaged.get());
+
+		// other source or interval
+		cache.acquire(new Object(), interval, stage(numStaged, 10)).release();
+		cache.acquire(source, new FinalInterval(new long[] {0, 0}, new long[] {4, 2}), stage(numStaged, 10)).release();
+		Assert.assertEquals(3, numStaged.get());
+		Assert.assertEquals(1, cache.getNumHits());
+		Assert.assertEquals(3, cache.getNumMisses());
+		Assert.assertEquals(30, cache.getNumBytes());
+
+		// released inputs are kept within the budget
+		first.release();
+		second.release();
+		second.release();
+		final StagingCache.SharedNDArray third = cache.acquire(source, interval, stage(numStaged, 10));
+		Assert.assertFalse(third.wasStaged());
+		third.release();
+		cache.clear();
+		Assert.assertEquals(0, cache.getNumBytes());
+	}
+
+	@Test
+	public void testEviction() {
+		final StagingCache cache = new StagingCache(20);
+		final Object source = new Object();
+		final AtomicInteger numStaged = new AtomicInteger();
+		final StagingCache.SharedNDArray[] arrays = new StagingCache.SharedNDArray[3];
+		for (int i = 0; i < arrays.length; ++i)
+			arrays[i] = cache.acquire(source, new FinalInterval(new long[] {i}, new long[] {i}), stage(numStaged, 10));
+		// inputs in use are not evicted
+		Assert.assertEquals(30, cache.getNumBytes());
+		arrays[1].release();
+		Assert.assertEquals(20, cache.getNumBytes());
+		arrays[0].release();
+		arrays[2].release();
+		Assert.assertEquals(20, cache.getNumBytes());
+		// staging input 1 again evicts input 0, the least recently used input
+		cache.acquire(source, new FinalInterval(new long[] {1}, new long[] {1}), stage(numStaged, 10)).release();
+		Assert.assertEquals(4, numStaged.get());
+		cache.acquire(source, new FinalInterval(new long[] {2}, new long[] {2}), stage(numStaged, 10)).release();
+		Assert.assertEquals(4, numStaged.get());
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		final StagingCache cache = new StagingCache(0);
+		final Object source = new Object();
+		final Interval interval = new FinalInterval(1);
+		final AtomicInteger numStaged = new AtomicInteger();
+		final CountDownLatch staging = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final Future<StagingCache.SharedNDArray> first = executor.submit(() -> cache.acquire(source, interval, () -> {
+				staging.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return stage(numStaged, 10).get();
+			}));
+			staging.await();
+			final Future<StagingCache.SharedNDArray> second = executor.submit(() -> cache.acquire(source, interval, stage(numStaged, 10)));
+			release.countDown();
+			Assert.assertSame(first.get().getData(), second.get().getData());
+			Assert.assertEquals(1, numStaged.get());
+			first.get().release();
+			second.get().release();
+			Assert.assertEquals(0, cache.getNumBytes());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailure() {
+		final StagingCache cache = new StagingCache(100);
+		final Object source = new Object();
+		final Interval interval = new FinalInterval(1);
+		try {
+			cache.acquire(source, interval, () -> {
+				throw new IllegalStateException();
+			});
+			Assert.fail();
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		final AtomicInteger numStaged = new AtomicInteger();
+		cache.acquire(source, interval, stage(numStaged, 10)).release();
+		Assert.assertEquals(1, numStaged.get());
+		Assert.assertEquals(10, cache.getNumBytes());
+	}
+}
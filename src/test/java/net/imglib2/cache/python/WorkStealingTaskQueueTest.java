@@ -0,0 +1,85 @@
+package net.imglib2.cache.python;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WorkStealingTaskQueueTest {
+
+	@Test
+	public void testAffinity() throws InterruptedException {
+		final WorkStealingTaskQueue<String> queue = new WorkStealingTaskQueue<>(2);
+		queue.put("shared", 1, false, WorkStealingTaskQueue.ANY_WORKER);
+		queue.put("local-0", 1, false, 0);
+		queue.put("local-1", 1, false, 1);
+		Assert.assertEquals(3, queue.size());
+		// own queue first, then shared queue, then steal
+		Assert.assertEquals("local-0", queue.take(0));
+		Assert.assertEquals("shared", queue.take(0));
+		Assert.assertEquals("local-1", queue.take(0));
+		// more urgent elements are stolen before less urgent elements of the own queue
+		queue.put("other-0", 1, false, 0);
+		queue.put("urgent-1", 0, false, 1);
+		Assert.assertEquals("urgent-1", queue.take(0));
+		Assert.assertEquals("other-0", queue.take(1));
+		Assert.assertNull(queue.poll(0, 1, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void testRemove() throws InterruptedException {
+		final WorkStealingTaskQueue<String> queue = new WorkStealingTaskQueue<>(2);
+		queue.put("a", 0, false, 1);
+		queue.put("b", 0, false, WorkStealingTaskQueue.ANY_WORKER);
+		queue.put("c", 0, false, 0);
+		Assert.assertEquals("c", queue.removeFirst(0, s -> true));
+		Assert.assertEquals("a", queue.removeFirst(0, s -> !s.equals("b")));
+		Assert.assertNull(queue.removeFirst(1, s -> s.equals("a")));
+		Assert.assertTrue(queue.remove("b"));
+		Assert.assertFalse(queue.remove("b"));
+		Assert.assertNull(queue.poll(0, 1, TimeUnit.MILLISECONDS));
+		queue.put("d", 0, false, 1);
+		Assert.assertEquals(Arrays.asList("d"), queue.drain());
+		Assert.assertEquals(Arrays.asList(), queue.drain());
+	}
+
+	@Test
+	public void testConcurrentStealing() throws InterruptedException {
+		final int numElements = 10000;
+		final WorkStealingTaskQueue<Integer> queue = new WorkStealingTaskQueue<>(4);
+		final int[] taken = new int[4];
+		final Thread[] workers = new Thread[4];
+		// worker 0 waits until another worker stole an element
+		final CountDownLatch stolen = new CountDownLatch(1);
+		for (int w = 0; w < workers.length; ++w) {
+			final int worker = w;
+			workers[w] = new Thread(() -> {
+				try {
+					if (worker == 0)
+						stolen.await(10, TimeUnit.SECONDS);
+					while (queue.take(worker) >= 0) {
+						++taken[worker];
+						if (worker != 0)
+							stolen.countDown();
+					}
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			workers[w].start();
+		}
+		// all elements prefer worker 0
+		for (int i = 0; i < numElements; ++i)
+			queue.put(i, 0, false, 0);
+		for (int w = 0; w < workers.length; ++w)
+			queue.put(-1, 1, false, WorkStealingTaskQueue.ANY_WORKER);
+		for (final Thread worker : workers)
+			worker.join();
+		Assert.assertEquals(numElements, Arrays.stream(taken).sum());
+		Assert.assertTrue(taken[1] + taken[2] + taken[3] > 0);
+		Assert.assertEquals(0, queue.size());
+	}
+}
@@ -4,9 +4,9 @@ import bdv.util.BdvFunctions;
 import bdv.util.BdvOptions;
 import bdv.util.BdvStackSource;
 import bdv.util.volatiles.SharedQueue;
-import bdv.util.volatiles.VolatileViews;
 import jep.JepException;
 import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.VolatileCachedCellImg;
 import net.imglib2.cache.python.Halo;
 import net.imglib2.cache.python.PythonCacheLoader;
 import net.imglib2.cache.python.PythonCacheLoaderQueue;
@@ -14,6 +14,7 @@ import net.imglib2.img.basictypeaccess.nio.BufferAccess;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.numeric.integer.LongType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileLongType;
 import net.imglib2.view.Views;
 
 /**
@@ -51,10 +52,11 @@ public class StarDist {
 				new LongType(),
 				new Halo(10, 10),
 				Views.extendZero(raw));
-		final CachedCellImg<LongType, ? extends BufferAccess<?>> img = loader.createCachedCellImg(30);
+		// Cells are computed asynchronously: fetcher threads are not blocked while Python runs.
+		final VolatileCachedCellImg<VolatileLongType, ?> img = loader.createVolatileCachedCellImg(new VolatileLongType(), 30, new SharedQueue(10, 1));
 
 		final BdvStackSource<?> bdv = BdvFunctions.show(
-				VolatileViews.wrapAsVolatile(img, new SharedQueue(10, 1)),
+				img,
 				"stardist",
 				BdvOptions.options().numRenderingThreads(10).is2D());
 		bdv.setDisplayRange(0.0, 8.0);